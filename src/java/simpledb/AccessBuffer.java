@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * AccessBuffer records the buffer hits the BufferPool serves without taking
+ * its lock, so that the replacement policy, which is not thread-safe, can be
+ * told about them later under the lock. Each thread writes to one of a few
+ * stripes, chosen by its id, so that threads rarely share a counter.
+ * <p>
+ * A stripe is a ring: if it fills up before it is drained, its oldest hits
+ * are overwritten and the policy never hears of them. That only makes the
+ * recency order of the policy approximate, which it is anyway once hits are
+ * reported late.
+ *
+ * @see BufferPool#getPage
+ */
+class AccessBuffer {
+
+    private static final int STRIPES = 16;
+    private static final int SLOTS = 256;
+
+    private static final class Stripe {
+        final AtomicReferenceArray<PageId> slots = new AtomicReferenceArray<PageId>(SLOTS);
+        final AtomicLong written = new AtomicLong();
+        long drained = 0; // protected by the pool
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    AccessBuffer() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+    }
+
+    /** Record a hit of pid; safe to call from any thread. */
+    void record(PageId pid) {
+        Stripe s = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        long i = s.written.getAndIncrement();
+        s.slots.lazySet((int) i & (SLOTS - 1), pid);
+    }
+
+    /**
+     * Report the hits recorded since the last drain to policy, skipping pages
+     * that are no longer resident. Must be called under the pool's lock.
+     */
+    void drain(ReplacementPolicy policy, Map<PageId, Page> resident) {
+        for (Stripe s : stripes) {
+            long end = s.written.get();
+            // a hit whose slot is not written yet is lost, like an overwritten one
+            for (long i = Math.max(s.drained, end - SLOTS); i < end; i++) {
+                PageId pid = s.slots.getAndSet((int) i & (SLOTS - 1), null);
+                if (pid != null && resident.containsKey(pid))
+                    policy.pageAccessed(pid);
+            }
+            s.drained = end;
+        }
+    }
+}
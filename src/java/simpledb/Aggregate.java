@@ -6,17 +6,22 @@ import java.util.*;
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The child is always read a batch at a time, through a BatchAdapter if it
+ * cannot produce batches itself.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
     private DbIterator child;
     private DbIterator results;
+    private transient BatchIterator batchResults; // results read a batch at a time
     private int agField;
     private int gbField;
     private Aggregator.Op agOp;
     private final Aggregator aggr;
+    private String aggName = null; // name of the aggregate column, if not the default
     Type gbFieldType, aggFieldType;
 
     /**
@@ -108,6 +113,15 @@ public class Aggregate extends Operator {
 	    return agOp;
     }
 
+    /**
+     * Name the aggregate column name instead of aop(child field name), so
+     * that an aggregate that merges partial aggregates can keep the name of
+     * the aggregate it replaces.
+     */
+    void setAggregateName(String name) {
+        aggName = name;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	return aop.toString();
     }
@@ -117,12 +131,15 @@ public class Aggregate extends Operator {
 	    // some code goes here
         super.open();
         child.open();
-        while (child.hasNext()){
-            aggr.mergeTupleIntoGroup(child.next());
+        BatchIterator batches = BatchAdapter.of(child);
+        TupleBatch b;
+        while ((b = batches.nextBatch()) != null) {
+            aggr.mergeBatchIntoGroup(b);
         }
         child.close();
         results = aggr.iterator();
         results.open();
+        batchResults = null;
     }
 
     /**
@@ -140,6 +157,16 @@ public class Aggregate extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of result rows, with the columns of
+     * getTupleDesc().
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batchResults == null)
+            batchResults = BatchAdapter.of(results);
+        return batchResults.nextBatch();
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 	// some code goes here
         child.rewind();
@@ -168,7 +195,8 @@ public class Aggregate extends Operator {
             fieldName = new String[1];
 
             fieldType[0] = child.getTupleDesc().getFieldType(agField);
-            fieldName[0] = agOp.toString() + "(" + child.getTupleDesc().getFieldName(agField) + ")";
+            fieldName[0] = aggName != null ? aggName
+                    : agOp.toString() + "(" + child.getTupleDesc().getFieldName(agField) + ")";
 
             return new TupleDesc(fieldType, fieldName);
         } else {
@@ -179,7 +207,8 @@ public class Aggregate extends Operator {
             fieldName[0] = child.getTupleDesc().getFieldName(gbField);
 
             fieldType[1] = child.getTupleDesc().getFieldType(agField);
-            fieldName[1] = agOp.toString() + "(" + child.getTupleDesc().getFieldName(agField) + ")";
+            fieldName[1] = aggName != null ? aggName
+                    : agOp.toString() + "(" + child.getTupleDesc().getFieldName(agField) + ")";
             return new TupleDesc(fieldType, fieldName);
         }
     }
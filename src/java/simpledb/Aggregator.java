@@ -76,6 +76,14 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the selected rows of a batch into the aggregate, as
+     * mergeTupleIntoGroup would merge each of them.
+     *
+     * @param b the batch, with the columns of the tuples
+     */
+    public void mergeBatchIntoGroup(TupleBatch b);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
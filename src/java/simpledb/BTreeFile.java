@@ -2,7 +2,9 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import simpledb.Predicate.Op;
 
@@ -17,14 +19,22 @@ import simpledb.Predicate.Op;
  * @see simpledb.BTreeInternalPage#BTreeInternalPage
  * @see simpledb.BTreeHeaderPage#BTreeHeaderPage
  * @see simpledb.BTreeRootPtrPage#BTreeRootPtrPage
+ * <p>
+ * Pages are read and written with positional I/O on one FileChannel, which
+ * is opened on first use and kept until the file is closed. Pages can also
+ * be served from a memory mapping of the file instead of being read into
+ * arrays; see setMemoryMapped().
  * @author Becca Taft
  */
-public class BTreeFile implements DbFile {
+public class BTreeFile implements DbFile, Closeable {
 
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private volatile boolean memoryMapped = false;
+	private volatile FileChannel channel; // opened on first use
+	private volatile MappedPages mapped; // mapped on first use
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -79,63 +89,135 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
-
+		if (memoryMapped)
+			return readMappedPage(id);
+		// an interrupt during channel I/O would close the channel for every
+		// reader, so it is held back until the read is done
+		boolean interrupted = Thread.interrupted();
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
-			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
+			ByteBuffer pageBuf = ByteBuffer.allocate(id.pgcateg() == BTreePageId.ROOT_PTR ?
+					BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize());
+			FileChannel c = channel();
+			long pos = pageOffset(id);
+			while (pageBuf.hasRemaining()) {
+				if (c.read(pageBuf, pos + pageBuf.position()) < 0)
+					break;
 			}
-			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+			if (pageBuf.position() == 0) {
+				throw new IllegalArgumentException("Read past end of table");
 			}
+			if (pageBuf.hasRemaining()) {
+				throw new IllegalArgumentException("Unable to read "
+						+ pageBuf.capacity() + " bytes from BTreeFile");
+			}
+			pageBuf.flip();
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+			return toPage(id, pageBuf);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	// the offset of page id in the file
+	private static long pageOffset(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR)
+			return 0;
+		return BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * (long) BufferPool.getPageSize();
+	}
+
+	// construct page id from its data
+	private Page toPage(BTreePageId id, ByteBuffer data) throws IOException {
+		switch (id.pgcateg()) {
+		case BTreePageId.ROOT_PTR:
+			return new BTreeRootPtrPage(id, data);
+		case BTreePageId.INTERNAL:
+			return new BTreeInternalPage(id, data, keyField);
+		case BTreePageId.LEAF:
+			return new BTreeLeafPage(id, data, keyField);
+		default:
+			return new BTreeHeaderPage(id, data);
+		}
+	}
+
+	// the channel of this file, opened on first use, and again if it was
+	// closed
+	private FileChannel channel() throws IOException {
+		FileChannel c = channel;
+		if (c != null && c.isOpen())
+			return c;
+		synchronized (this) {
+			if (channel == null || !channel.isOpen())
+				channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+			return channel;
+		}
+	}
+
+	// write data at pos, holding back interrupts like readPage
+	private void write(ByteBuffer data, long pos) throws IOException {
+		boolean interrupted = Thread.interrupted();
+		try {
+			FileChannel c = channel();
+			while (data.hasRemaining())
+				c.write(data, pos + data.position());
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	// read a page from the mapping of the file
+	private Page readMappedPage(BTreePageId id) {
+		int size = id.pgcateg() == BTreePageId.ROOT_PTR ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+		// an interrupt during channel I/O would close the channel
+		boolean interrupted = Thread.interrupted();
+		try {
+			ByteBuffer data = mapped().slice(pageOffset(id), size);
+			if (data == null) {
+				throw new IllegalArgumentException("Read past end of table");
 			}
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+			return toPage(id, data);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	// the mapping of this file, created on first use
+	private MappedPages mapped() throws IOException {
+		MappedPages m = mapped;
+		if (m != null)
+			return m;
+		synchronized (this) {
+			if (mapped == null)
+				mapped = new MappedPages(channel(), BufferPool.getPageSize());
+			return mapped;
+		}
+	}
+
+	/**
+	 * Serve page reads from a read-only memory mapping of the file instead
+	 * of copying each page into an array, or stop doing so.
+	 */
+	public void setMemoryMapped(boolean enabled) {
+		memoryMapped = enabled;
+	}
+
+	/**
+	 * Close the channel of this file and drop its mapping. A later read or
+	 * write opens it again.
+	 */
+	public synchronized void close() throws IOException {
+		mapped = null;
+		if (channel != null) {
+			channel.close();
+			channel = null;
 		}
 	}
 
@@ -148,17 +230,7 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		write(ByteBuffer.wrap(page.getPageData()), pageOffset(id));
 	}
 	
 	/**
@@ -166,7 +238,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		try {
+			return (int) ((channel().size() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
@@ -1132,15 +1208,10 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(channel().size() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				write(ByteBuffer.wrap(BTreeRootPtrPage.createEmptyPageData()), 0);
+				write(ByteBuffer.wrap(BTreeLeafPage.createEmptyPageData()), BTreeRootPtrPage.getPageSize());
 			}
 		}
 
@@ -1196,11 +1267,7 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				write(ByteBuffer.wrap(BTreeInternalPage.createEmptyPageData()), channel().size());
 				emptyPageNo = numPages();
 			}
 		}
@@ -1230,15 +1297,14 @@ public class BTreeFile implements DbFile {
 		int emptyPageNo = getEmptyPageNo(tid, dirtypages);
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
-		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
-		
-		// make sure the page is not in the buffer pool	or in the local cache		
+		// make sure the page is not in the buffer pool	or in the local cache;
+		// first, so that a background write of the old page cannot land after
+		// the empty one
 		Database.getBufferPool().discardPage(newPageId);
 		dirtypages.remove(newPageId);
+
+		// write empty page to disk
+		write(ByteBuffer.wrap(BTreePage.createEmptyPageData()), pageOffset(newPageId));
 		
 		return getPage(tid, dirtypages, newPageId, Permissions.READ_WRITE);
 	}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeHeaderPage stores data for one page of a BTreeFile and 
@@ -35,9 +36,17 @@ public class BTreeHeaderPage implements Page {
 	 * 
 	 */
 	public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+		this(id, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Construct the page from the remaining bytes of data, e.g. a slice of a
+	 * memory-mapped file.
+	 */
+	public BTreeHeaderPage(BTreePageId id, ByteBuffer data) throws IOException {
 		this.pid = id;
 		this.numSlots = getNumSlots();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		DataInputStream dis = new DataInputStream(new ByteBufferInputStream(data));
 
 		// Read the next and prev pointers
 		try {
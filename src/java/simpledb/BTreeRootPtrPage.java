@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * BTreeRootPtrPage stores the pointer to the root node used in the B+ tree and
@@ -34,8 +35,16 @@ public class BTreeRootPtrPage implements Page {
 	 * of the first header page
 	 */
 	public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+		this(id, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Construct the page from the remaining bytes of data, e.g. a slice of a
+	 * memory-mapped file.
+	 */
+	public BTreeRootPtrPage(BTreePageId id, ByteBuffer data) throws IOException {
 		this.pid = id;
-		this.dis = new DataInputStream(new ByteArrayInputStream(data));
+		this.dis = new DataInputStream(new ByteBufferInputStream(data));
 
 		// read in the root pointer
 		root = dis.readInt();
@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * BackgroundWriter is a daemon thread that keeps frames of a BufferPool
+ * ready for eviction: every interval, and whenever eviction had to write a
+ * dirty page itself, it writes the dirty pages among the next victims of
+ * the replacement policy, so that eviction can drop a clean page instead of
+ * waiting for a write. Unlike the PageCleaner, which writes the pages with
+ * the oldest log records to shorten recovery, it writes the pages that are
+ * about to be needed.
+ *
+ * @see BufferPool#startBackgroundWriter
+ */
+class BackgroundWriter extends Thread {
+
+    private final BufferPool pool;
+    private final long intervalMillis;
+    private final int cleanFrames;
+    private final Object sleep = new Object();
+    private boolean running = true; // protected by sleep
+    private boolean wanted = false; // protected by sleep
+
+    BackgroundWriter(BufferPool pool, long intervalMillis, int cleanFrames) {
+        super("background writer");
+        setDaemon(true);
+        this.pool = pool;
+        this.intervalMillis = intervalMillis;
+        this.cleanFrames = cleanFrames;
+    }
+
+    public void run() {
+        while (true) {
+            // not interrupt(): an interrupt closes a FileChannel in use
+            synchronized (sleep) {
+                try {
+                    if (running && !wanted)
+                        sleep.wait(intervalMillis);
+                } catch (InterruptedException e) {
+                    // stop
+                    running = false;
+                }
+                if (!running)
+                    return;
+                wanted = false;
+            }
+            try {
+                pool.writeAhead(cleanFrames);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Start a round now, e.g. because eviction found no clean page. */
+    void wakeUp() {
+        synchronized (sleep) {
+            wanted = true;
+            sleep.notifyAll();
+        }
+    }
+
+    /** Stop the writer; a round in progress is finished first. */
+    void shutdown() {
+        synchronized (sleep) {
+            running = false;
+            sleep.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a DbIterator a batch at a time, so that operators reading batches
+ * can run on top of any existing operator.
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private transient TupleBatch batch;
+
+    public BatchAdapter(DbIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return child itself if it can produce batches, or else an adapter
+     *         that fills batches from it. Opening, rewinding and closing
+     *         the result does the same to child.
+     */
+    public static BatchIterator of(DbIterator child) {
+        if (child instanceof BatchIterator)
+            return (BatchIterator) child;
+        return new BatchAdapter(child);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc());
+        batch.clear();
+        try {
+            while (!batch.isFull() && child.hasNext())
+                batch.add(child.next());
+        } catch (NoSuchElementException e) {
+            // the child ran out between hasNext and next
+        }
+        return batch.numRows() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of DbIterator: each call
+ * to nextBatch() returns up to a batch of rows in columnar form, so that a
+ * pipeline pays for its virtual calls once per batch rather than once per
+ * tuple, and need not create Tuples and Fields for every row.
+ * <p>
+ * Operators that implement both interfaces share open, rewind and close
+ * between them; a consumer reads an opened iterator either with next() or
+ * with nextBatch(), not both. BatchAdapter and BatchTupleIterator convert
+ * between the two.
+ *
+ * @see TupleBatch
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. The batch may have no selected rows
+     * without the iteration being over; it is only valid until the next call.
+     *
+     * @return the next batch, or null if there are no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of the batches
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a BatchIterator a tuple at a time, so that a batch pipeline can be
+ * the child of any operator. The tuples have no record ids.
+ */
+public class BatchTupleIterator implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+    private boolean open = false;
+
+    public BatchTupleIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        open = true;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open)
+            throw new IllegalStateException("Operator not yet open");
+        while (batch == null || pos == batch.size()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+        open = false;
+    }
+}
@@ -4,8 +4,16 @@ import java.io.*;
 
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.Arrays;
 
 
@@ -17,6 +25,31 @@ import java.util.Arrays;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages are managed STEAL / NO-FORCE: a dirty page may be written to disk
+ * before its transaction commits, once an UPDATE record for it is forced to
+ * the log, and commit only logs the pages of a transaction instead of
+ * writing them.  See {@link LogFile}.
+ * <p>
+ * Checkpoints do not flush the pool; they record its dirty page table (see
+ * getDirtyPageTable()).  An optional page cleaner thread writes the pages
+ * with the oldest log records in the background, and an optional background
+ * writer thread writes the dirty pages that are next in line for eviction,
+ * so that eviction rarely has to wait for a write.
+ * <p>
+ * An optional prefetcher thread reads heap file pages ahead of sequential
+ * scans; see {@link Prefetcher}.
+ * <p>
+ * Scans of tables larger than the pool read through a
+ * {@link BufferRing}, a few frames they recycle, so that they do not evict
+ * the pages other transactions use.
+ * <p>
+ * The page table is a concurrent map, so a hit is served without taking the
+ * pool's lock: it is only recorded, and the replacement policy learns of it
+ * the next time the lock is taken (see {@link AccessBuffer}). Misses, eviction
+ * and everything else that changes the table run under the lock, but a page
+ * is read from disk without holding it, so misses of different pages overlap.
+ * A page can be pinned to keep it from being evicted while it is used.
  * 
  * @Threadsafe, all fields are final
  */
@@ -26,9 +59,65 @@ public class BufferPool {
 
     private static int pageSize = PAGE_SIZE;
 
-    private HashMap<PageId, Page> pageids;
+    // read without the pool's lock, changed only under it
+    private final ConcurrentHashMap<PageId, Page> pageids;
     private int NumPages;
-    private HashMap<PageId, Integer> RLU;
+    private final ReplacementPolicy policy;
+    private final LockManager lockManager;
+    // hits not yet reported to the policy
+    private final AccessBuffer accesses = new AccessBuffer();
+    // frames taken by pages being read on a miss, which are not in pageids yet
+    private int reserved = 0;
+    // the number of pins of each pinned page; a pinned page is not evicted
+    private final HashMap<PageId, Integer> pins = new HashMap<PageId, Integer>();
+
+    // the LSN of the first log record of each page whose logged changes
+    // are not on disk yet
+    private final HashMap<PageId, Long> recLsns = new HashMap<PageId, Long>();
+    private PageCleaner cleaner;
+    private long pagesCleaned = 0;
+
+    private BackgroundWriter writer;
+    // pages the background writer is writing without holding the pool; they
+    // are not evicted, flushed or discarded until it is done
+    private final HashSet<PageId> writing = new HashSet<PageId>();
+    private long pagesWrittenAhead = 0;
+    private long dirtyEvictions = 0;
+
+    private volatile Prefetcher prefetcher;
+    // pages read ahead that have not been accessed since
+    private final Set<PageId> prefetched = ConcurrentHashMap.newKeySet();
+    // pages being read, on a miss or by the prefetcher; fetchPage waits for
+    // them, and a page cached or discarded meanwhile is removed, so that the
+    // reader drops the stale copy it read
+    private final HashSet<PageId> loading = new HashSet<PageId>();
+    private long prefetchHits = 0;
+    private long prefetchMisses = 0;
+    private long prefetchWasted = 0;
+
+    /** The most frames a scan ring may have */
+    static final int MAX_RING_PAGES = 32;
+    // the ring each page read through a ring belongs to, until it is
+    // accessed without one
+    private final ConcurrentHashMap<PageId, BufferRing> ringPages = new ConcurrentHashMap<PageId, BufferRing>();
+    private volatile boolean scanRings = true;
+    private final LongAdder hits = new LongAdder();
+    private long misses = 0;
+
+    // eviction prefers clean pages, which can be dropped without a write
+    private final ReplacementPolicy.Evictable CLEAN_PAGE = new ReplacementPolicy.Evictable() {
+        public boolean test(PageId pid) {
+            return !pins.containsKey(pid) && pageids.get(pid).isDirty() == null;
+        }
+    };
+
+    // every unpinned page may be evicted, unless the background writer is
+    // writing it; dirty victims are flushed first
+    private final ReplacementPolicy.Evictable ANY_PAGE = new ReplacementPolicy.Evictable() {
+        public boolean test(PageId pid) {
+            return !pins.containsKey(pid) && !writing.contains(pid);
+        }
+    };
     
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
@@ -36,18 +125,365 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replacing pages
+     * in LRU order.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.Kind.LRU);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the replacement policy used to choose eviction victims.
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind kind) {
         // some code goes here
         if(numPages<1) throw new IllegalArgumentException("Number of Pages cannot be zero!");
-        pageids = new HashMap<>(numPages);
+        pageids = new ConcurrentHashMap<PageId, Page>(numPages);
         NumPages = numPages;
-        RLU = new HashMap<>();
+        policy = kind.create(numPages);
+        lockManager = new LockManager();
     }
     
+    /** @return the lock manager of this pool, e.g. to read its counters */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /**
+     * @return the dirty page table: for every page whose logged changes may
+     *         not be on disk yet, the LSN of its first such log record
+     */
+    public synchronized Map<PageId, Long> getDirtyPageTable() {
+        return new HashMap<PageId, Long>(recLsns);
+    }
+
+    /**
+     * Start a daemon thread that writes up to pagesPerRound of the pages
+     * in the dirty page table every intervalMillis, oldest log record
+     * first, replacing any cleaner already running.
+     */
+    public synchronized void startPageCleaner(long intervalMillis, int pagesPerRound) {
+        stopPageCleaner();
+        cleaner = new PageCleaner(this, intervalMillis, pagesPerRound);
+        cleaner.start();
+    }
+
+    /** Stop the page cleaner, if one is running. */
+    public synchronized void stopPageCleaner() {
+        if (cleaner != null) {
+            cleaner.shutdown();
+            cleaner = null;
+        }
+    }
+
+    /** @return the number of pages written by the page cleaner */
+    public synchronized long getPagesCleaned() {
+        return pagesCleaned;
+    }
+
+    /**
+     * Write up to max of the pages in the dirty page table to disk, those
+     * with the oldest log records first.
+     *
+     * @return the number of pages written
+     */
+    synchronized int cleanPages(int max) throws IOException {
+        ArrayList<Map.Entry<PageId, Long>> oldest = new ArrayList<Map.Entry<PageId, Long>>(recLsns.entrySet());
+        Collections.sort(oldest, new Comparator<Map.Entry<PageId, Long>>() {
+            public int compare(Map.Entry<PageId, Long> a, Map.Entry<PageId, Long> b) {
+                return Long.compare(a.getValue(), b.getValue());
+            }
+        });
+        ArrayList<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < oldest.size() && i < max; i++)
+            pids.add(oldest.get(i).getKey());
+        flushPages(pids);
+        pagesCleaned += pids.size();
+        return pids.size();
+    }
+
+    /**
+     * Start a daemon thread that reads the pages of heap files ahead of
+     * sequential scans, replacing any prefetcher already running. Pages read
+     * ahead only replace clean pages, and never more than a quarter of the
+     * pool is read ahead for one scan.
+     */
+    public synchronized void startPrefetcher() {
+        stopPrefetcher();
+        prefetcher = new Prefetcher(this, NumPages);
+        prefetcher.start();
+    }
+
+    /** Stop the prefetcher, if one is running. */
+    public synchronized void stopPrefetcher() {
+        if (prefetcher != null) {
+            prefetcher.shutdown();
+            prefetcher = null;
+        }
+    }
+
+    /** @return the number of accesses of pages that had been read ahead */
+    public synchronized long getPrefetchHits() {
+        return prefetchHits;
+    }
+
+    /**
+     * @return the number of pages a sequential scan had to read itself,
+     *         because the prefetcher had not read them yet
+     */
+    public synchronized long getPrefetchMisses() {
+        return prefetchMisses;
+    }
+
+    /** @return the number of pages read ahead that were evicted unused */
+    public synchronized long getPrefetchWasted() {
+        return prefetchWasted;
+    }
+
+    /** @return the number of pages read ahead that have not been used yet */
+    synchronized int numPrefetched() {
+        return prefetched.size();
+    }
+
+    /**
+     * Read page pid into the pool on behalf of the prefetcher, unless it is
+     * resident already. The page is read without holding the pool, and only
+     * added if no other copy was loaded or discarded meanwhile. Only a clean
+     * page is evicted to make room; if there is none, the page is dropped.
+     */
+    void prefetch(PageId pid) {
+        synchronized (this) {
+            if (pageids.containsKey(pid) || !loading.add(pid))
+                return;
+        }
+        Page page = null;
+        try {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (RuntimeException e) {
+            // past the end of the file, or the table was removed
+        } finally {
+            synchronized (this) {
+                if (loading.remove(pid) && page != null)
+                    addPrefetched(page);
+                notifyAll();
+            }
+        }
+    }
+
+    private void addPrefetched(Page page) {
+        if (pageids.size() + reserved >= NumPages) {
+            accesses.drain(policy, pageids);
+            PageId victim = policy.chooseVictim(CLEAN_PAGE);
+            if (victim == null)
+                return;
+            removePage(victim);
+        }
+        pageids.put(page.getId(), page);
+        policy.pageLoaded(page.getId());
+        prefetched.add(page.getId());
+    }
+
+    /** Make whoever is reading pid drop its copy, if one is. */
+    private void cancelLoad(PageId pid) {
+        if (loading.remove(pid))
+            notifyAll();
+    }
+
+    /** Wait until pid has been read, or its read was cancelled. */
+    private void awaitLoad(PageId pid) {
+        boolean interrupted = false;
+        while (loading.contains(pid)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /** Remove a resident page, noting if it was read ahead but not used. */
+    private void removePage(PageId pid) {
+        pageids.remove(pid);
+        policy.pageRemoved(pid);
+        ringPages.remove(pid);
+        if (prefetched.remove(pid)) {
+            prefetchWasted++;
+            if (prefetcher != null)
+                prefetcher.wasted(pid);
+        }
+    }
+
+    /**
+     * Return a ring for a sequential scan that reads tablePages pages, or
+     * null if they fit in the pool and can be scanned through it.
+     */
+    public BufferRing newScanRing(int tablePages) {
+        return scanRings && tablePages > NumPages ? newRing() : null;
+    }
+
+    /**
+     * Enable or disable rings for scans of large tables; if disabled, they
+     * read through the whole pool. Enabled by default.
+     */
+    public void setScanRings(boolean enabled) {
+        scanRings = enabled;
+    }
+
+    /**
+     * Return a ring of an eighth of the pool, up to MAX_RING_PAGES pages,
+     * e.g. for a scan that should not displace the pages of others whatever
+     * the size of its table.
+     */
+    public BufferRing newRing() {
+        return new BufferRing(Math.max(1, Math.min(MAX_RING_PAGES, NumPages / 8)));
+    }
+
+    /**
+     * Return the frames of ring to the pool; its pages become ordinary pages.
+     * Does nothing if ring is null.
+     */
+    public synchronized void releaseRing(BufferRing ring) {
+        if (ring == null)
+            return;
+        for (PageId pid : ring.clear()) {
+            if (ringPages.get(pid) == ring)
+                ringPages.remove(pid);
+        }
+    }
+
+    /** @return the number of page accesses that found the page resident */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return the number of page accesses that read the page from disk */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Start a daemon thread that, every intervalMillis and whenever eviction
+     * has to write a dirty page, writes the dirty pages among the next
+     * cleanFrames victims of the replacement policy, replacing any background
+     * writer already running.
+     */
+    public synchronized void startBackgroundWriter(long intervalMillis, int cleanFrames) {
+        stopBackgroundWriter();
+        writer = new BackgroundWriter(this, intervalMillis, cleanFrames);
+        writer.start();
+    }
+
+    /** Stop the background writer, if one is running. */
+    public synchronized void stopBackgroundWriter() {
+        if (writer != null) {
+            writer.shutdown();
+            writer = null;
+        }
+    }
+
+    /** @return the number of pages written by the background writer */
+    public synchronized long getPagesWrittenAhead() {
+        return pagesWrittenAhead;
+    }
+
+    /** @return the number of evictions that had to write the victim first */
+    public synchronized long getDirtyEvictions() {
+        return dirtyEvictions;
+    }
+
+    /**
+     * Write the dirty pages among the pages that would be evicted to free
+     * cleanFrames frames, counting free frames as clean. An UPDATE record
+     * for each page is logged under the pool, but the log is forced and the
+     * pages written without holding it, from copies taken when they were
+     * logged. A page is only marked clean if it did not change meanwhile.
+     *
+     * @return the number of pages written
+     */
+    int writeAhead(int cleanFrames) throws IOException {
+        LogFile log = Database.getLogFile();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        ArrayList<PageImage> images = new ArrayList<PageImage>();
+        synchronized (this) {
+            int n = cleanFrames - (NumPages - pageids.size() - reserved);
+            if (n <= 0)
+                return 0;
+            accesses.drain(policy, pageids);
+            for (PageId pid : policy.nextVictims(n)) {
+                Page page = pageids.get(pid);
+                TransactionId dirtier = page.isDirty();
+                if (dirtier == null || writing.contains(pid))
+                    continue;
+                log.logWrite(dirtier, page.getBeforeImage(), page);
+                pages.add(page);
+                images.add(PageImage.of(page));
+            }
+        }
+        if (pages.isEmpty())
+            return 0;
+        // the log is forced before the pages are claimed, so that no one
+        // holding the log waits for them
+        log.force();
+        synchronized (this) {
+            for (int i = pages.size() - 1; i >= 0; i--) {
+                if (unchanged(pages.get(i), images.get(i))) {
+                    writing.add(pages.get(i).getId());
+                } else {
+                    pages.remove(i);
+                    images.remove(i);
+                }
+            }
+        }
+        int written = 0;
+        try {
+            for (PageImage image : images) {
+                Database.getCatalog().getDatabaseFile(image.pid.getTableId()).writePage(image.toPage());
+                written++;
+            }
+        } finally {
+            synchronized (this) {
+                for (int i = 0; i < pages.size(); i++) {
+                    Page page = pages.get(i);
+                    writing.remove(page.getId());
+                    if (i < written && unchanged(page, images.get(i))) {
+                        page.markDirty(false, null);
+                        recLsns.remove(page.getId());
+                    }
+                }
+                pagesWrittenAhead += written;
+                notifyAll();
+            }
+        }
+        return written;
+    }
+
+    /** @return true if page is still resident and dirty, and image is its data */
+    private boolean unchanged(Page page, PageImage image) {
+        return pageids.get(page.getId()) == page && page.isDirty() != null
+                && Arrays.equals(page.getPageData(), image.data);
+    }
+
+    /** Wait until the background writer has finished writing any of pids. */
+    private void awaitWrites(Collection<PageId> pids) {
+        boolean interrupted = false;
+        while (!Collections.disjoint(writing, pids)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -77,40 +513,173 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        // hit
-        if (pageids.containsKey(pid)) {
-            //update RLU
-            updateRLU();
-            RLU.put(pid,0);
-            return pageids.get(pid);
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page like getPage(tid, pid, perm), on behalf of
+     * a scan reading through ring. If the page is not resident, it takes the
+     * frame of the oldest page of the ring once the ring is full.
+     *
+     * @param ring the ring of the scan, or null to use the whole pool
+     * @see #newScanRing
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        // lock first: waiting for a lock must not hold up the whole pool
+        lockManager.acquireLock(tid, pid, perm);
+        // a plain hit does not take the pool's lock; a page read ahead, or
+        // one the prefetcher has to follow, goes through fetchPage
+        Page page = pageids.get(pid);
+        if (page != null && !prefetched.contains(pid)
+                && (prefetcher == null || !(pid instanceof HeapPageId))) {
+            hits.increment();
+            accesses.record(pid);
+            if (ring == null)
+                ringPages.remove(pid);
+            return page;
         }
-        else {
-            if (pageids.size() >= NumPages){
-                evictPage();
+        return fetchPage(pid, ring);
+    }
+
+    /**
+     * Retrieve the specified page like getPage(tid, pid, perm), unless the
+     * lock cannot be granted without waiting for another transaction.
+     *
+     * @return the page, or null if the lock is not available
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        if (!lockManager.tryAcquireLock(tid, pid, perm))
+            return null;
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page like getPage(tid, pid, perm, ring), and pin
+     * it: the page is not evicted until it is released with unpinPage.
+     * Pins are counted, so a page pinned twice must be unpinned twice.
+     */
+    public Page getPinnedPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        while (true) {
+            Page page = getPage(tid, pid, perm, ring);
+            synchronized (this) {
+                // unless it was evicted or replaced since
+                if (pageids.get(pid) == page) {
+                    Integer n = pins.get(pid);
+                    pins.put(pid, n == null ? 1 : n + 1);
+                    return page;
+                }
             }
-            DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page newPage = dbfile.readPage(pid);
-            pageids.put(pid, newPage);
-            //update RLU
-            updateRLU();
-            RLU.put(pid,0);
-            return newPage;
         }
-        //return null;
     }
 
-    private void updateRLU(){
-        if(!RLU.isEmpty()){
-            for (PageId key : RLU.keySet()){
-                int value = RLU.get(key);
-                RLU.replace(key,++value);
+    /** Release a pin of pid taken by getPinnedPage. */
+    public synchronized void unpinPage(PageId pid) {
+        Integer n = pins.get(pid);
+        if (n == null)
+            return;
+        if (n == 1)
+            pins.remove(pid);
+        else
+            pins.put(pid, n - 1);
+    }
+
+    /** @return the number of pins of pid */
+    synchronized int pinCount(PageId pid) {
+        Integer n = pins.get(pid);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * Look up pid under the pool's lock, or read it into a frame reserved for
+     * it. The page is read without holding the pool, and only added if no
+     * other copy was cached or discarded meanwhile; otherwise the lookup is
+     * repeated.
+     */
+    private Page fetchPage(PageId pid, BufferRing ring) throws DbException {
+        while (true) {
+            synchronized (this) {
+                Page page = pageids.get(pid);
+                if (page == null && loading.contains(pid)) {
+                    // being read already: wait for it rather than read it twice
+                    awaitLoad(pid);
+                    page = pageids.get(pid);
+                }
+                if (page != null) {
+                    hits.increment();
+                    accesses.record(pid);
+                    if (prefetched.remove(pid)) {
+                        prefetchHits++;
+                        // a page read ahead for the scan counts against its ring
+                        if (ring != null)
+                            addToRing(ring, pid);
+                    } else if (ring == null) {
+                        ringPages.remove(pid);
+                    }
+                    if (prefetcher != null && pid instanceof HeapPageId)
+                        prefetcher.accessed((HeapPageId) pid, true);
+                    return page;
+                }
+                misses++;
+                if (prefetcher != null && pid instanceof HeapPageId
+                        && prefetcher.accessed((HeapPageId) pid, false))
+                    prefetchMisses++;
+                if (ring != null)
+                    addToRing(ring, pid);
+                while (pageids.size() + reserved >= NumPages)
+                    evictPage();
+                // eviction may have waited for a write, and someone else
+                // loaded the page meanwhile
+                if (pageids.containsKey(pid) || loading.contains(pid))
+                    continue;
+                reserved++;
+                loading.add(pid);
+            }
+            Page newPage = null;
+            try {
+                newPage = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            } finally {
+                synchronized (this) {
+                    reserved--;
+                    boolean current = loading.remove(pid);
+                    if (current && newPage != null) {
+                        pageids.put(pid, newPage);
+                        policy.pageLoaded(pid);
+                    } else {
+                        newPage = null;
+                    }
+                    notifyAll();
+                }
             }
+            if (newPage != null)
+                return newPage;
         }
     }
 
+    /**
+     * Add pid to ring. Once the ring is full, its oldest pages are removed
+     * from it until there is room, and each of them that is still the ring's
+     * and clean is evicted, leaving its frame for pid.
+     */
+    private void addToRing(BufferRing ring, PageId pid) {
+        while (ring.isFull()) {
+            PageId old = ring.removeOldest();
+            if (ringPages.get(old) != ring)
+                continue; // evicted, or used without the ring since
+            ringPages.remove(old);
+            Page p = pageids.get(old);
+            if (p != null && p.isDirty() == null && !pins.containsKey(old))
+                removePage(old);
+        }
+        ring.add(pid);
+        ringPages.put(pid, ring);
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -123,6 +692,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.releaseLock(tid, pid);
     }
 
     /**
@@ -133,13 +703,14 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -153,6 +724,55 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        LogFile log = Database.getLogFile();
+        if (commit) {
+            logPages(tid);
+            // locks are held until the commit record is on disk
+            log.logCommit(tid);
+        } else {
+            // undoes the changes of tid that were stolen to disk
+            log.logAbort(tid);
+            restorePages(tid);
+        }
+        lockManager.releaseAllLocks(tid);
+    }
+
+    /**
+     * Log an UPDATE record for every page dirtied by tid, and make its
+     * current contents the before image of the next transaction. The pages
+     * stay dirty in the pool (NO-FORCE); the log can redo them after a crash.
+     */
+    private synchronized void logPages(TransactionId tid) throws IOException {
+        LogFile log = Database.getLogFile();
+        for (Page page : pageids.values()) {
+            if (tid.equals(page.isDirty())) {
+                long lsn = log.logWrite(tid, page.getBeforeImage(), page);
+                if (!recLsns.containsKey(page.getId()))
+                    recLsns.put(page.getId(), lsn);
+                page.setBeforeImage();
+            }
+        }
+    }
+
+    /**
+     * Replace every page dirtied by tid with its before image. The restored
+     * page stays dirty, since it may hold committed changes that were never
+     * written to disk.
+     */
+    private synchronized void restorePages(TransactionId tid) throws IOException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        for (Page page : pageids.values()) {
+            if (tid.equals(page.isDirty()))
+                dirtied.add(page);
+        }
+        for (Page page : dirtied) {
+            Page before = page.getBeforeImage();
+            before.markDirty(true, tid);
+            pageids.put(page.getId(), before);
+            DbFile file = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
+            if (file instanceof HeapFile)
+                ((HeapFile) file).restored((HeapPage) before);
+        }
     }
 
     /**
@@ -178,19 +798,7 @@ public class BufferPool {
         ArrayList<Page> affectedPages = table.insertTuple(tid,t);
         for (Page page:affectedPages){
             page.markDirty(true,tid);
-
-            // if page in pool already, done.
-            if(pageids.get(page.getId()) != null) {
-                //replace old page with new one in case deleteTuple returns a new copy of the page
-                pageids.put(page.getId(), page);
-            }
-            else {
-
-                // put page in pool
-                if(pageids.size() >= NumPages)
-                    evictPage();
-                pageids.put(page.getId(), page);
-            }
+            cachePage(page);
         }
     }
 
@@ -216,6 +824,25 @@ public class BufferPool {
         ArrayList<Page> affectedPages = table.deleteTuple(tid,t);
         for (Page page:affectedPages){
             page.markDirty(true,tid);
+            cachePage(page);
+        }
+    }
+
+    /**
+     * Make page the cached version of its page id, replacing any older copy
+     * (a DbFile may return a new copy of a page it modified).
+     */
+    private synchronized void cachePage(Page page) throws DbException {
+        PageId pid = page.getId();
+        if (pageids.containsKey(pid)) {
+            pageids.put(pid, page);
+            policy.pageAccessed(pid);
+        } else {
+            while (pageids.size() + reserved >= NumPages)
+                evictPage();
+            cancelLoad(pid);
+            pageids.put(pid, page);
+            policy.pageLoaded(pid);
         }
     }
 
@@ -229,10 +856,7 @@ public class BufferPool {
         // not necessary for lab1
 
         // bufferpool -> disk; all pid -> write file
-        for (PageId pid: pageids.keySet()){
-            flushPage(pid);
-        }
-
+        flushPages(new ArrayList<PageId>(pageids.keySet()));
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -246,8 +870,11 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for
-        pageids.remove(pid);
-        RLU.remove(pid);
+        awaitWrites(Arrays.asList(pid));
+        if (pageids.containsKey(pid))
+            removePage(pid);
+        cancelLoad(pid);
+        recLsns.remove(pid);
     }
 
     /**
@@ -260,11 +887,38 @@ public class BufferPool {
 
         // mem-> disk
         // pid->page, find heap file-> write file
-        Page page = pageids.get(pid);
-        int table_id = pid.getTableId();
-        DbFile df = Database.getCatalog().getDatabaseFile(table_id);
-        df.writePage(page);
-        page.markDirty(false,null);
+        flushPages(Arrays.asList(pid));
+    }
+
+    /**
+     * Flushes the given pages to disk, following the write-ahead rule: an
+     * UPDATE record for every dirty page is logged and the log is forced
+     * once, before any of the pages is written.
+     */
+    private synchronized void flushPages(List<PageId> pids) throws IOException {
+        // a write in the background could land after ours
+        awaitWrites(pids);
+        LogFile log = Database.getLogFile();
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (PageId pid : pids) {
+            Page page = pageids.get(pid);
+            if (page == null)
+                continue; // discarded while waiting
+            TransactionId dirtier = page.isDirty();
+            if (dirtier != null) {
+                log.logWrite(dirtier, page.getBeforeImage(), page);
+                dirty.add(page);
+            }
+        }
+        if (dirty.isEmpty())
+            return;
+        log.force();
+        for (Page page : dirty) {
+            DbFile df = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            df.writePage(page);
+            page.markDirty(false,null);
+            recLsns.remove(page.getId());
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -272,42 +926,48 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        ArrayList<PageId> dirtied = new ArrayList<PageId>();
         for (Page page : pageids.values()) {
-            if (page.isDirty() !=null && page.isDirty()==tid) {
-                flushPage(page.getId());
+            if (tid.equals(page.isDirty())) {
+                dirtied.add(page.getId());
             }
         }
+        flushPages(dirtied);
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Clean pages are preferred as victims; if every page is dirty, the victim
+     * is flushed to disk to ensure dirty pages are updated on disk.
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
 
-        PageId evict_page=null;
-        int lru_cnt=-1;
-        for (PageId pid:RLU.keySet()){
-            int value = RLU.get(pid);
-            if (value > lru_cnt) {
-                lru_cnt = value;
-                evict_page = pid;
+        accesses.drain(policy, pageids);
+        PageId evict_page = policy.chooseVictim(CLEAN_PAGE);
+        while (evict_page == null) {
+            evict_page = policy.chooseVictim(ANY_PAGE);
+            if (evict_page != null) {
+                // a write on the foreground path; let the writer catch up
+                dirtyEvictions++;
+                if (writer != null)
+                    writer.wakeUp();
+            } else if (!writing.isEmpty()) {
+                // the pages being written will be clean
+                awaitWrites(new ArrayList<PageId>(writing));
+                evict_page = policy.chooseVictim(CLEAN_PAGE);
+            } else {
+                throw new DbException("No available used pages!\n");
             }
         }
-        // remove
-        if (evict_page==null){
-            throw new DbException("No available used pages!\n");
-        }
         try {
             flushPage(evict_page);
         }catch (IOException e){
             e.printStackTrace();
         }
 
-        pageids.remove(evict_page);
-        RLU.remove(evict_page);
+        removePage(evict_page);
     }
 
 }
@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small set of BufferPool frames private to one large sequential scan.
+ * Pages the scan reads into the pool are added to its ring; once the ring is
+ * full, each new page takes the frame of the oldest page in the ring instead
+ * of evicting a page other transactions use. A page in a ring that is
+ * accessed without the ring becomes an ordinary page of the pool, and is
+ * left alone when the ring moves on.
+ * <p>
+ * Rings are created by the pool and only accessed while holding it.
+ *
+ * @see BufferPool#newScanRing
+ */
+public class BufferRing {
+
+    private final int capacity;
+    // the pages read through this ring, oldest first
+    private final ArrayDeque<PageId> pages = new ArrayDeque<PageId>();
+
+    BufferRing(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("a ring needs at least one page");
+        this.capacity = capacity;
+    }
+
+    /** @return the number of frames of this ring */
+    public int capacity() {
+        return capacity;
+    }
+
+    boolean isFull() {
+        return pages.size() >= capacity;
+    }
+
+    void add(PageId pid) {
+        pages.add(pid);
+    }
+
+    /** @return the oldest page read through this ring */
+    PageId removeOldest() {
+        return pages.poll();
+    }
+
+    /** @return the pages read through this ring, and forget them */
+    ArrayDeque<PageId> clear() {
+        ArrayDeque<PageId> old = new ArrayDeque<PageId>(pages);
+        pages.clear();
+        return old;
+    }
+}
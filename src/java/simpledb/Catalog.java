@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -77,7 +78,9 @@ public class Catalog {
         //if (name2id.containsKey(name)) {tb_name="";}
         name2id.put(name,tableid);
 
-        id2table.put(tableid,new Table(file,name,pkeyField));
+        Table old = id2table.put(tableid,new Table(file,name,pkeyField));
+        if (old != null && old.getDbFile() != file)
+            close(old.getDbFile());
 
     }
 
@@ -156,9 +159,22 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for (Table table : id2table.values())
+            close(table.getDbFile());
         id2table.clear();
         name2id.clear();
     }
+
+    // release the file handles of a table that was dropped
+    private static void close(DbFile file) {
+        if (file instanceof Closeable) {
+            try {
+                ((Closeable) file).close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
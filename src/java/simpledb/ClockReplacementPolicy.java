@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * CLOCK (second chance) replacement. Every resident page occupies a slot in a
+ * ring and carries a reference bit that is set on each hit. The clock hand
+ * sweeps the ring, clearing reference bits, and evicts the first page whose
+ * bit is already clear. A hit only sets a bit, so it never reorders anything.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private final HashMap<PageId, Integer> frameOf;
+    private int[] freeFrames;
+    private int numFree;
+    private int hand = 0;
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     */
+    public ClockReplacementPolicy(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        frames = new PageId[capacity];
+        referenced = new boolean[capacity];
+        frameOf = new HashMap<PageId, Integer>(capacity * 2);
+        freeFrames = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            freeFrames[i] = capacity - 1 - i;
+        numFree = capacity;
+    }
+
+    public void pageLoaded(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced[frame] = true;
+            return;
+        }
+        if (numFree == 0)
+            grow();
+        int f = freeFrames[--numFree];
+        frames[f] = pid;
+        referenced[f] = true;
+        frameOf.put(pid, f);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            referenced[frame] = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null)
+            return;
+        frames[frame] = null;
+        referenced[frame] = false;
+        freeFrames[numFree++] = frame;
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        // two full turns: the first may only clear reference bits
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int f = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[f];
+            if (pid == null)
+                continue;
+            if (referenced[f]) {
+                referenced[f] = false;
+                continue;
+            }
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    public List<PageId> nextVictims(int n) {
+        // sweep like chooseVictim, clearing bits in a copy
+        List<PageId> victims = new ArrayList<PageId>(n);
+        boolean[] ref = referenced.clone();
+        boolean[] listed = new boolean[frames.length];
+        for (int step = 0, f = hand; step < 2 * frames.length && victims.size() < n;
+                step++, f = (f + 1) % frames.length) {
+            if (frames[f] == null || listed[f])
+                continue;
+            if (ref[f]) {
+                ref[f] = false;
+                continue;
+            }
+            listed[f] = true;
+            victims.add(frames[f]);
+        }
+        return victims;
+    }
+
+    // the BufferPool may briefly hold more pages than it was sized for,
+    // e.g. when every resident page is pinned by a writer
+    private void grow() {
+        int old = frames.length;
+        int size = old * 2;
+        frames = Arrays.copyOf(frames, size);
+        referenced = Arrays.copyOf(referenced, size);
+        freeFrames = new int[size];
+        numFree = 0;
+        for (int i = size - 1; i >= old; i--)
+            freeFrames[numFree++] = i;
+    }
+}
@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Base class of the operators that run parts of a plan on a pool of worker
+ * threads. start() runs each of the given iterators on its own worker; the
+ * workers put their tuples on a bounded queue in chunks, and
+ * nextFromWorkers() reads them back on the calling thread in no particular
+ * order. The workers run as part of the same transaction as the caller.
+ * <p>
+ * Workers are never interrupted, since an interrupt during page I/O closes
+ * the file for every thread; stop() asks them to finish instead, and waits
+ * until they have.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of tuples a worker puts on the queue at a time */
+    private static final int CHUNK_SIZE = 256;
+
+    /** The number of chunks each worker may be ahead of the consumer */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /** Marks the end of the output of one worker */
+    private static final Object END = new Object();
+
+    private static volatile int parallelism = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService pool;
+
+    private transient BlockingQueue<Object> queue;
+    private transient volatile boolean cancelled;
+    private transient int running; // workers that have not sent END
+    private transient Iterator<Tuple> chunk;
+
+    /**
+     * @return the number of partitions the planner splits a parallel part of
+     *         a plan into; 1 disables parallel plans
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of partitions the planner splits a parallel part of a
+     * plan into. Defaults to the number of processors.
+     */
+    public static void setParallelism(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        parallelism = n;
+    }
+
+    /**
+     * The worker pool. Workers block on the queue and on locks, so the pool
+     * is not bounded: a bounded pool could leave the workers of one exchange
+     * waiting behind the blocked workers of another.
+     */
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = Executors.newCachedThreadPool(new ThreadFactory() {
+                private int n = 0;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "exchange-worker-" + n++);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Run each of tasks on a worker thread, and wait until all of them have
+     * finished, even if the caller is interrupted. Used by bulk operations
+     * that split a table into disjoint page ranges.
+     *
+     * @return the results of the tasks, in order
+     * @throws DbException
+     *             if a task failed; the first failure is thrown
+     * @throws TransactionAbortedException
+     *             if a task was aborted
+     */
+    static <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+            throws DbException, TransactionAbortedException {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks)
+            futures.add(pool().submit(task));
+        List<T> results = new ArrayList<T>(tasks.size());
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<T> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause();
+                    results.add(null);
+                }
+                break;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure != null)
+            rethrow(failure);
+        return results;
+    }
+
+    /**
+     * Start one worker for each of parts. Each worker opens its iterator,
+     * reads it to the end and closes it.
+     */
+    protected void start(DbIterator[] parts) {
+        final BlockingQueue<Object> q = new ArrayBlockingQueue<Object>(
+                CHUNKS_PER_WORKER * parts.length + 1);
+        queue = q;
+        cancelled = false;
+        running = parts.length;
+        chunk = null;
+        for (final DbIterator part : parts) {
+            pool().execute(new Runnable() {
+                public void run() {
+                    produce(part, q);
+                }
+            });
+        }
+    }
+
+    private void produce(DbIterator part, BlockingQueue<Object> q) {
+        try {
+            try {
+                part.open();
+                ArrayList<Tuple> tuples = new ArrayList<Tuple>(CHUNK_SIZE);
+                while (!cancelled && part.hasNext()) {
+                    tuples.add(part.next());
+                    if (tuples.size() == CHUNK_SIZE) {
+                        put(q, tuples);
+                        tuples = new ArrayList<Tuple>(CHUNK_SIZE);
+                    }
+                }
+                if (!tuples.isEmpty() && !cancelled)
+                    put(q, tuples);
+            } catch (Throwable e) {
+                put(q, e);
+            } finally {
+                part.close();
+            }
+        } finally {
+            put(q, END);
+        }
+    }
+
+    /** Put o on q, waiting for space; workers are not interrupted. */
+    private static void put(BlockingQueue<Object> q, Object o) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                q.put(o);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return the next tuple produced by the workers started by start(), or
+     *         null once all of them have finished
+     * @throws DbException
+     *             if a worker failed; the other workers are stopped first
+     * @throws TransactionAbortedException
+     *             if a worker was aborted, or the caller was interrupted
+     */
+    @SuppressWarnings("unchecked")
+    protected Tuple nextFromWorkers() throws DbException, TransactionAbortedException {
+        while (chunk == null || !chunk.hasNext()) {
+            if (running == 0)
+                return null;
+            Object o;
+            try {
+                o = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+            if (o == END) {
+                running--;
+            } else if (o instanceof Throwable) {
+                stop(); // the failed worker still sends END
+                rethrow((Throwable) o);
+            } else {
+                chunk = ((List<Tuple>) o).iterator();
+            }
+        }
+        return chunk.next();
+    }
+
+    private static void rethrow(Throwable e) throws DbException, TransactionAbortedException {
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        DbException d = new DbException("exchange worker failed: " + e);
+        d.initCause(e);
+        throw d;
+    }
+
+    /**
+     * Stop the workers started by start(), and wait until they have closed
+     * their iterators. Does nothing if no workers are running.
+     */
+    protected void stop() {
+        if (queue == null)
+            return;
+        cancelled = true;
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (running > 0) {
+                try {
+                    if (queue.take() == END)
+                        running--;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        queue = null;
+        chunk = null;
+    }
+
+    /** @return the name of this operator, for query plans */
+    public abstract String getName();
+}
@@ -3,15 +3,15 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. Read a batch
+ * at a time, it narrows the selection of each batch of its child.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private Predicate pred;
     private DbIterator iter;
-    private ArrayList<Tuple> tuplepassed;
-    private Iterator<Tuple> tupleIterator;
+    private transient BatchIterator batchIter; // iter read a batch at a time
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -26,8 +26,6 @@ public class Filter extends Operator {
         // some code goes here
         pred = p;
         iter = child;
-        tuplepassed = new ArrayList<>();
-        //tupleIterator = tuplepassed.iterator();
     }
 
     public Predicate getPredicate() {
@@ -45,35 +43,17 @@ public class Filter extends Operator {
         // some code goes here
         super.open();
         iter.open();
-
-        while (iter.hasNext()){
-            Tuple cur = iter.next();
-            if (pred.filter(cur))
-                tuplepassed.add(cur);
-        }
-
-        tupleIterator = tuplepassed.iterator();
     }
 
     public void close() {
         // some code goes here
         super.close();
         iter.close();
-        tuplepassed = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         iter.rewind();
-        tuplepassed.clear();
-
-        while (iter.hasNext()) {
-            Tuple cur = iter.next();
-            if (pred.filter(cur))
-                tuplepassed.add(cur);
-        }
-
-        tupleIterator = tuplepassed.iterator();
     }
 
     /**
@@ -88,10 +68,28 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        //Iterator<Tuple> it = tuplepassed.iterator();
-        if(tupleIterator.hasNext())
-            return tupleIterator.next();
+        while (iter.hasNext()) {
+            Tuple cur = iter.next();
+            if (pred.filter(cur))
+                return cur;
+        }
+        return null;
+    }
 
+    /**
+     * Returns the next batch of the child with its selection narrowed to the
+     * rows that pass the predicate. Batches left with no rows are skipped.
+     *
+     * @see Predicate#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batchIter == null)
+            batchIter = BatchAdapter.of(iter);
+        TupleBatch b;
+        while ((b = batchIter.nextBatch()) != null) {
+            if (pred.filter(b) > 0)
+                return b;
+        }
         return null;
     }
 
@@ -107,6 +105,7 @@ public class Filter extends Operator {
         // some code goes here
         if (this.iter != children[0]) {
             this.iter = children[0];
+            this.batchIter = null;
         }
     }
 
@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have an empty slot, so
+ * that inserts find one without reading full pages. It is a bitmap with one
+ * bit per page, kept in a side file next to the heap file: an integer count
+ * of the pages it covers, followed by the bitmap bytes. Bits are written
+ * through as they change, without forcing.
+ * <p>
+ * The map is a hint. HeapFile checks the page it points to and clears the
+ * bit of a page that turns out to be full. Deletes set the bit again, and
+ * so do aborts for the pages they restore. A page whose space was freed
+ * behind the map's back stays marked full until a delete on it or a
+ * rebuild. The map is rebuilt from the page headers when the side
+ * file is missing or covers a different number of pages than the heap file.
+ * <p>
+ * The side file lives as long as its heap file. HeapFile deletes it when it
+ * closes a table whose file is gone, and the first map opened in a directory
+ * deletes the side files there that outlived their heap files, such as
+ * those of scratch tables deleted on exit.
+ *
+ * @see HeapFile#insertTuple
+ */
+class FreeSpaceMap {
+
+    private static final int HEADER_SIZE = 4;
+    private static final String SUFFIX = ".fsm";
+
+    // directories already cleared of orphaned side files
+    private static final Set<File> swept = new HashSet<File>();
+
+    private final FileChannel channel;
+    private final BitSet free = new BitSet(); // protected by this
+    private int pages; // protected by this
+
+    private FreeSpaceMap(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /** @return the side file that stores the map of the heap file f */
+    static File fileFor(File f) {
+        return new File(f.getPath() + SUFFIX);
+    }
+
+    /** Delete the side file of the heap file f if f no longer exists. */
+    static void deleteIfOrphaned(File f) {
+        if (!f.exists())
+            fileFor(f).delete();
+    }
+
+    // delete the side files in dir whose heap file is gone, once per directory
+    private static void sweep(File dir) {
+        synchronized (swept) {
+            if (!swept.add(dir))
+                return;
+        }
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File side : files) {
+            String name = side.getName();
+            if (name.endsWith(SUFFIX))
+                deleteIfOrphaned(new File(dir, name.substring(0, name.length() - SUFFIX.length())));
+        }
+    }
+
+    /**
+     * Open the map of a heap file, reading it from its side file, or
+     * rebuilding it if the side file does not match the heap file.
+     *
+     * @param heap the channel of the heap file
+     * @param slotsPerPage the number of tuple slots on each page
+     */
+    static FreeSpaceMap open(File f, FileChannel heap, int slotsPerPage) throws IOException {
+        File side = fileFor(f);
+        sweep(side.getAbsoluteFile().getParentFile());
+        FileChannel channel = FileChannel.open(side.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FreeSpaceMap map = new FreeSpaceMap(channel);
+        int heapPages = (int) (heap.size() / BufferPool.getPageSize());
+        if (!map.load(heapPages)) {
+            map.rebuild(heap, heapPages, slotsPerPage);
+        }
+        return map;
+    }
+
+    // read the side file; false if it does not cover exactly heapPages pages
+    private synchronized boolean load(int heapPages) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE)
+            return false;
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) >= 0)
+            ;
+        buf.flip();
+        pages = buf.getInt();
+        if (pages != heapPages || buf.remaining() < (pages + 7) / 8)
+            return false;
+        byte[] bits = new byte[(pages + 7) / 8];
+        buf.get(bits);
+        free.or(BitSet.valueOf(bits));
+        return true;
+    }
+
+    // mark the pages with an unused slot in their header, then store the map
+    private synchronized void rebuild(FileChannel heap, int heapPages, int slotsPerPage) throws IOException {
+        free.clear();
+        pages = heapPages;
+        ByteBuffer header = ByteBuffer.allocate((slotsPerPage + 7) / 8);
+        for (int p = 0; p < heapPages; p++) {
+            header.clear();
+            long pos = p * (long) BufferPool.getPageSize();
+            while (header.hasRemaining() && heap.read(header, pos + header.position()) >= 0)
+                ;
+            for (int i = 0; i < slotsPerPage; i++) {
+                if ((header.get(i / 8) >> (i % 8) & 1) == 0) {
+                    free.set(p);
+                    break;
+                }
+            }
+        }
+        channel.truncate(0);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + (pages + 7) / 8);
+        buf.putInt(pages);
+        buf.put(Arrays.copyOf(free.toByteArray(), (pages + 7) / 8));
+        buf.clear();
+        writeFully(buf, 0);
+    }
+
+    /** @return the first page at or after from with an empty slot, or -1 */
+    synchronized int nextFree(int from) {
+        return free.nextSetBit(from);
+    }
+
+    /** Record whether page has an empty slot. */
+    synchronized void set(int page, boolean hasSpace) throws IOException {
+        if (free.get(page) == hasSpace && page < pages)
+            return;
+        free.set(page, hasSpace);
+        // an interrupt during channel I/O would close the channel
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (page >= pages) {
+                pages = page + 1;
+                ByteBuffer count = ByteBuffer.allocate(HEADER_SIZE);
+                count.putInt(0, pages);
+                writeFully(count, 0);
+            }
+            byte[] bits = free.get(page / 8 * 8, page / 8 * 8 + 8).toByteArray();
+            ByteBuffer b = ByteBuffer.allocate(1);
+            b.put(0, bits.length > 0 ? bits[0] : 0);
+            writeFully(b, HEADER_SIZE + page / 8);
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeFully(ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining())
+            channel.write(b, pos + b.position());
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
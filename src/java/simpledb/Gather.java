@@ -0,0 +1,63 @@
+package simpledb;
+
+/**
+ * Gather runs each of its children on a worker thread and returns the union
+ * of their tuples, in no particular order. The children are usually the
+ * partitions of one plan, e.g. filters over SeqScans of disjoint page ranges
+ * of a table, and must all have the same TupleDesc.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator[] parts;
+
+    /**
+     * Constructor.
+     *
+     * @param parts
+     *            the iterators to run in parallel; at least one
+     */
+    public Gather(DbIterator[] parts) {
+        if (parts.length == 0)
+            throw new IllegalArgumentException("nothing to gather");
+        this.parts = parts;
+    }
+
+    public String getName() {
+        return "Gather(" + parts.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return parts[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        start(parts);
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start(parts);
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return nextFromWorkers();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return parts;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        parts = children;
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * The running state of one group of an aggregate: the count, sum, min and
+ * max of the values merged into it so far. Its size does not depend on the
+ * number of values, so an aggregate needs memory per group, not per tuple.
+ *
+ * @see IntegerAggregator
+ * @see StringAggregator
+ */
+class GroupState {
+
+    int count = 0;
+    long sum = 0;
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+
+    /** @return the state of the int group key in groups, added if it is new */
+    static GroupState of(IntHashMap<GroupState> groups, int key) {
+        GroupState state = groups.get(key);
+        if (state == null) {
+            state = new GroupState();
+            groups.put(key, state);
+        }
+        return state;
+    }
+
+    /** @return the state of the group key in groups, added if it is new */
+    static GroupState of(Map<String, GroupState> groups, String key) {
+        GroupState state = groups.get(key);
+        if (state == null) {
+            state = new GroupState();
+            groups.put(key, state);
+        }
+        return state;
+    }
+
+    /** Merge the value v into the group. */
+    void add(int v) {
+        count++;
+        sum += v;
+        if (v < min)
+            min = v;
+        if (v > max)
+            max = v;
+    }
+
+    /**
+     * @return the value of the aggregate op over the group, which must have
+     *         at least one value; a SUM outside the int range is clamped to
+     *         Integer.MIN_VALUE or Integer.MAX_VALUE
+     */
+    int result(Aggregator.Op op) {
+        assert count > 0 : "expect non empty group";
+        switch (op) {
+            case AVG:
+                return (int) (sum / count);
+            case MAX:
+                return max;
+            case MIN:
+                return min;
+            case SUM:
+                return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, sum));
+            case COUNT:
+                return count;
+            default:
+                throw new UnsupportedOperationException("unsupported aggregate " + op);
+        }
+    }
+}
@@ -3,13 +3,23 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation. Read a batch
+ * at a time, it probes the hash table with batches of the right child.
+ * <p>
+ * If the left child does not fit into one hash table, both children are
+ * hashed on the join field into FANOUT partitions on disk (a Grace hash
+ * join), and each pair of partitions is joined on its own, so that every
+ * child is read once whatever its size. A left partition that is still too
+ * large is split again with another hash function, up to MAX_DEPTH times;
+ * beyond that, e.g. for a single key with too many tuples, it is joined a
+ * hash table at a time, reading its right partition again for each.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
     private JoinPredicate joinPred;
+    private final int mapSize;
     private DbIterator lIter;
     private DbIterator rIter;
     private TupleDesc td;
@@ -18,6 +28,41 @@ public class HashEquiJoin extends Operator {
     transient private Tuple t2 = null;
     //private HashMap<>
 
+    // state of nextBatch()
+    transient private BatchIterator batchR = null; // rIter read a batch at a time
+    transient private TupleBatch probe = null;
+    transient private int probePos = 0;
+    transient private int probeRow = 0;
+    transient private Iterator<Tuple> batchListIt = null;
+    transient private TupleBatch out = null;
+
+    // the left tuples the hash table is built from and the right tuples
+    // probing it: the children, or the pair of partitions being joined
+    transient private DbIterator build = null;
+    transient private DbIterator probeSide = null;
+    transient private boolean done = false;
+    // pairs of partitions not joined yet, and the pair being joined
+    transient private ArrayDeque<Partition> partitions = null;
+    transient private Partition current = null;
+
+    /** A pair of partitions of the left and right children. */
+    private static class Partition {
+        final SpillFile left;
+        final SpillFile right;
+        final int depth;
+
+        Partition(TupleDesc ltd, TupleDesc rtd, int depth) {
+            left = new SpillFile(ltd);
+            right = new SpillFile(rtd);
+            this.depth = depth;
+        }
+
+        void delete() {
+            left.delete();
+            right.delete();
+        }
+    }
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -30,7 +75,16 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor for a join whose hash table holds at most mapSize left
+     * tuples rather than MAP_SIZE.
+     */
+    HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int mapSize) {
         // some code goes here
+        this.mapSize = mapSize;
         joinPred = p;
         lIter = child1;
         rIter = child2;
@@ -62,49 +116,193 @@ public class HashEquiJoin extends Operator {
     }
 
     // partition file1 based on field, hashmap <filed, Tuple_lists>
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    private final static int MAP_SIZE = 20000;
+    transient private JoinHashTable map = null;
+    /** The most left tuples the hash table holds at once */
+    final static int MAP_SIZE = 20000;
+    /** The number of partitions of each child once the left one is spilled */
+    final static int FANOUT = 32;
+    /** How often a partition that is too large is split again */
+    final static int MAX_DEPTH = 3;
 
+    /** Load up to mapSize tuples of build into the map. */
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
-        while (lIter.hasNext()) {
-            t1 = lIter.next();
-            ArrayList<Tuple> list = map.get(t1.getField(joinPred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(joinPred.getField1()), list);
-            }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        while (cnt < mapSize && build.hasNext()) {
+            t1 = build.next();
+            map.add(t1);
+            cnt++;
         }
         return cnt > 0;
 
     }
 
+    /**
+     * Build the first hash table from the left child. If the left child does
+     * not fit, both children are partitioned instead, and the table is built
+     * from the first pair of partitions.
+     *
+     * @return false if there is nothing to join
+     */
+    private boolean firstMap() throws DbException, TransactionAbortedException {
+        build = lIter;
+        probeSide = rIter;
+        batchR = null;
+        partitions = new ArrayDeque<Partition>();
+        if (map == null)
+            map = new JoinHashTable(lIter.getTupleDesc(), joinPred.getField1());
+        boolean loaded = loadMap();
+        if (!build.hasNext())
+            return loaded;
+        Partition[] parts = newPartitions(0);
+        for (ArrayList<Tuple> list : map.lists()) {
+            for (Tuple t : list)
+                parts[partitionOf(t.getField(joinPred.getField1()), 0)].left.add(t);
+        }
+        map.clear();
+        spill(lIter, rIter, parts);
+        return nextPartition();
+    }
+
+    /**
+     * Build the next hash table, once the current one has been probed.
+     *
+     * @return false if the join is done
+     */
+    private boolean nextMap() throws DbException, TransactionAbortedException {
+        if (build.hasNext()) {
+            // a partition too large for one table is joined a table at a
+            // time, probed with its whole right partition each time
+            probeSide.rewind();
+            return loadMap();
+        }
+        return nextPartition();
+    }
+
+    /** Start joining the next pair of partitions that both have tuples. */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        closePartition();
+        while (!partitions.isEmpty()) {
+            Partition p = partitions.poll();
+            if (p.left.size() > mapSize && p.depth < MAX_DEPTH) {
+                // split it again, with another hash function
+                DbIterator l = p.left.iterator();
+                DbIterator r = p.right.iterator();
+                l.open();
+                r.open();
+                spill(l, r, newPartitions(p.depth + 1));
+                l.close();
+                r.close();
+                p.delete();
+                continue;
+            }
+            current = p;
+            build = p.left.iterator();
+            build.open();
+            probeSide = p.right.iterator();
+            probeSide.open();
+            batchR = null;
+            probe = null;
+            return loadMap();
+        }
+        return false;
+    }
+
+    private void closePartition() {
+        if (current == null)
+            return;
+        build.close();
+        probeSide.close();
+        current.delete();
+        current = null;
+    }
+
+    private Partition[] newPartitions(int depth) {
+        Partition[] parts = new Partition[FANOUT];
+        for (int i = 0; i < FANOUT; i++)
+            parts[i] = new Partition(lIter.getTupleDesc(), rIter.getTupleDesc(), depth);
+        return parts;
+    }
+
+    /** @return the partition of key at depth; each depth hashes differently */
+    static int partitionOf(Field key, int depth) {
+        int h = key.hashCode() * (0x9E3779B1 + 2 * depth);
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % FANOUT;
+    }
+
+    /**
+     * Add the rest of left and right to parts, and queue the pairs of parts
+     * in which both sides have tuples.
+     */
+    private void spill(DbIterator left, DbIterator right, Partition[] parts)
+            throws DbException, TransactionAbortedException {
+        int depth = parts[0].depth;
+        while (left.hasNext()) {
+            Tuple t = left.next();
+            parts[partitionOf(t.getField(joinPred.getField1()), depth)].left.add(t);
+        }
+        while (right.hasNext()) {
+            Tuple t = right.next();
+            parts[partitionOf(t.getField(joinPred.getField2()), depth)].right.add(t);
+        }
+        for (Partition p : parts) {
+            if (p.left.size() == 0 || p.right.size() == 0) {
+                p.delete();
+            } else {
+                p.left.finish();
+                p.right.finish();
+                partitions.add(p);
+            }
+        }
+    }
+
+    private void deletePartitions() {
+        closePartition();
+        if (partitions != null) {
+            for (Partition p : partitions)
+                p.delete();
+            partitions.clear();
+        }
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
         super.open();
         lIter.open();
         rIter.open();
-        loadMap();
+        probe = null;
+        batchListIt = null;
+        done = !firstMap();
     }
 
     public void close() {
         // some code goes here
         super.close();
+        deletePartitions();
         lIter.close();
         rIter.close();
         t1 = null;
         t2 = null;
         listIt = null;
-        map.clear();
+        probe = null;
+        batchListIt = null;
+        if (map != null)
+            map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        deletePartitions();
+        lIter.rewind();
+        rIter.rewind();
+        t1 = null;
+        t2 = null;
+        listIt = null;
+        probe = null;
+        batchListIt = null;
+        done = !firstMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -134,30 +332,64 @@ public class HashEquiJoin extends Operator {
             return processList();
         }
 
-        // loop around child2
-        while (rIter.hasNext()) {
-            t2 = rIter.next();
+        while (!done) {
+            // loop around child2
+            while (probeSide.hasNext()) {
+                t2 = probeSide.next();
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(joinPred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+                // if match, create a combined tuple and fill it with the values
+                // from both tuples
+                ArrayList<Tuple> l = map.get(t2.getField(joinPred.getField2()));
+                if (l == null)
+                    continue;
+                listIt = l.iterator();
 
-            return processList();
+                return processList();
 
-        }
+            }
 
-        // child2 is done: advance child1
-        rIter.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            // child2 is done: advance child1
+            done = !nextMap();
         }
 
         return null;
     }
 
+    /**
+     * Returns the next batch of joined rows, in the column layout of
+     * getTupleDesc(). Batches of the right child probe the hash table built
+     * from the left child, one selected row at a time.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null)
+            out = new TupleBatch(td);
+        out.clear();
+        int field2 = joinPred.getField2();
+        while (!out.isFull() && !done) {
+            if (batchListIt != null && batchListIt.hasNext()) {
+                out.add(batchListIt.next(), probe, probeRow);
+                continue;
+            }
+            if (probe == null || probePos == probe.size()) {
+                if (batchR == null)
+                    batchR = BatchAdapter.of(probeSide);
+                probe = batchR.nextBatch();
+                probePos = 0;
+                if (probe == null) {
+                    // child2 is done: advance child1
+                    done = !nextMap();
+                    continue;
+                }
+                if (probe.size() == 0)
+                    continue;
+            }
+            probeRow = probe.row(probePos++);
+            ArrayList<Tuple> l = map.get(probe, field2, probeRow);
+            batchListIt = l == null ? null : l.iterator();
+        }
+        return out.numRows() == 0 ? null : out;
+    }
+
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
 
@@ -185,6 +417,8 @@ public class HashEquiJoin extends Operator {
         // some code goes here
         lIter = children[0];
         rIter = children[1];
+        batchR = null;
+        map = null;
     }
     
 }
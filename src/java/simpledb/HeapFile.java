@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -9,15 +12,27 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read and written with positional I/O on one FileChannel, which
+ * is opened on first use and kept until the file is closed (the Catalog
+ * closes the files of the tables it drops), so concurrent readers share no
+ * file pointer. Tables that are mostly read can serve pages from a
+ * memory mapping of the file instead; see setMemoryMapped().
+ * <p>
+ * Inserts find a page with an empty slot through a {@link FreeSpaceMap},
+ * kept in a side file next to the heap file.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable {
 
     private File file;
     private TupleDesc td;
-    private int numPage;
+    private volatile FileChannel channel; // opened on first use
+    private volatile boolean memoryMapped = false;
+    private volatile MappedPages mapped; // mapped on first use
+    private volatile FreeSpaceMap freeSpace; // opened on first use
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -29,7 +44,36 @@ public class HeapFile implements DbFile {
         // some code goes here
         this.file = f;
         this.td = td;
-        this.numPage = (int) file.length() / BufferPool.getPageSize();
+    }
+
+    // the channel of this file, opened on first use, and again if it was
+    // closed
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c != null && c.isOpen())
+            return c;
+        synchronized (this) {
+            if (channel == null || !channel.isOpen())
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return channel;
+        }
+    }
+
+    /**
+     * Close the channel of this file. A later read or write opens it again.
+     */
+    public synchronized void close() throws IOException {
+        mapped = null;
+        if (freeSpace != null) {
+            freeSpace.close();
+            freeSpace = null;
+            FreeSpaceMap.deleteIfOrphaned(file);
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
     }
 
     /**
@@ -68,25 +112,82 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    // the free space map of this file, opened on first use
+    private FreeSpaceMap freeSpace() throws IOException {
+        FreeSpaceMap m = freeSpace;
+        if (m != null)
+            return m;
+        synchronized (this) {
+            if (freeSpace == null) {
+                int slots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+                freeSpace = FreeSpaceMap.open(file, channel(), slots);
+            }
+            return freeSpace;
+        }
+    }
+
+    /**
+     * Mark page in the free space map if it has an empty slot. Aborts call
+     * this with the images they restore, since the inserts they undo may
+     * have filled the page and cleared its bit.
+     */
+    void restored(HeapPage page) throws IOException {
+        if (page.getNumEmptySlots() != 0)
+            freeSpace().set(page.getId().pageNumber(), true);
+    }
+
+    /**
+     * Serve page reads from a read-only memory mapping of the file instead
+     * of copying each page into an array, or stop doing so.
+     */
+    public void setMemoryMapped(boolean enabled) {
+        memoryMapped = enabled;
+    }
+
+    // the mapping of this file, created on first use
+    private MappedPages mapped() throws IOException {
+        MappedPages m = mapped;
+        if (m != null)
+            return m;
+        synchronized (this) {
+            if (mapped == null)
+                mapped = new MappedPages(channel(), BufferPool.getPageSize());
+            return mapped;
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         //return null;
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+        // an interrupt during channel I/O closes the channel for every
+        // reader, so it is held back until the read is done
+        boolean interrupted = Thread.interrupted();
+        try {
             long pos = pid.pageNumber() * (long) BufferPool.getPageSize();
-            if (pos < 0 || pos >= file.length()) {
+            if (memoryMapped && pos >= 0) {
+                ByteBuffer page = mapped().slice(pos, BufferPool.getPageSize());
+                if (page == null) {
+                    throw new IllegalArgumentException("The page doesn't exist in this file.");
+                }
+                return new HeapPage((HeapPageId) pid, page);
+            }
+
+            FileChannel c = channel();
+            if (pos < 0 || pos >= c.size()) {
                 throw new IllegalArgumentException("The page doesn't exist in this file.");
             }
 
-            raf.seek(pos);
-            byte[] buf = new byte[BufferPool.getPageSize()];
-            raf.read(buf);
-            return new HeapPage((HeapPageId) pid, buf);
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+            while (buf.hasRemaining() && c.read(buf, pos + buf.position()) >= 0)
+                ;
+            return new HeapPage((HeapPageId) pid, buf.array());
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new RuntimeException(e);
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
-        return null;
     }
 
     // see DbFile.java for javadocs
@@ -94,22 +195,18 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
 
-        // use pid to get pageNum
         // offset = pageNum * pageSize
+        boolean interrupted = Thread.interrupted();
         try {
-            PageId pid= page.getId();
-
-            RandomAccessFile rAf=new RandomAccessFile(file,"rw");
-            int offset = pid.pageNumber()*BufferPool.getPageSize();
-            byte[] b=new byte[BufferPool.getPageSize()];
-            b=page.getPageData();
-            rAf.seek(offset);
-            rAf.write(b, 0, BufferPool.getPageSize());
-            rAf.close();
-        }catch (IOException e){
-            e.printStackTrace();
+            FileChannel c = channel();
+            long pos = page.getId().pageNumber() * (long) BufferPool.getPageSize();
+            ByteBuffer buf = ByteBuffer.wrap(page.getPageData(), 0, BufferPool.getPageSize());
+            while (buf.hasRemaining())
+                c.write(buf, pos + buf.position());
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
-
     }
 
     /**
@@ -117,7 +214,12 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return numPage;
+        // the file may have grown through another handle
+        try {
+            return (int) (channel().size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     // see DbFile.java for javadocs
@@ -127,29 +229,49 @@ public class HeapFile implements DbFile {
         //return null;
         // not necessary for lab1
         ArrayList<Page> affectedPages = new ArrayList<>();
-        for (int i = 0; i < numPages(); i++) {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpace();
+        int numPages = numPages();
+        for (int i = fsm.nextFree(0); i >= 0 && i < numPages; i = fsm.nextFree(i + 1)) {
             HeapPageId pid = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            boolean alreadyLocked = bp.holdsLock(tid, pid);
+            // lock the page exclusively right away, since two inserters that
+            // both took a shared lock first would deadlock upgrading it; and
+            // pass over a page another transaction holds, rather than wait
+            // for it while holding the page this one is filling
+            HeapPage page = (HeapPage) bp.tryGetPage(tid, pid, Permissions.READ_WRITE);
+            if (page == null)
+                continue;
             if (page.getNumEmptySlots() != 0) {
                 //call page.insertTuple
                 page.insertTuple(t);
                 page.markDirty(true, tid);
                 affectedPages.add(page);
+                if (page.getNumEmptySlots() == 0)
+                    fsm.set(i, false);
                 break;
             }
+            // the map was out of date
+            fsm.set(i, false);
+            // nothing was read from this page, so 2PL allows dropping the lock
+            if (!alreadyLocked)
+                bp.releasePage(tid, pid);
         }
         if (affectedPages.size() == 0) {//page is full
             //create a new Page
-            HeapPageId npid = new HeapPageId(getId(), numPages());
-            HeapPage blankPage = new HeapPage(npid, HeapPage.createEmptyPageData());
-            numPage++;
-            //write page to disk
-            writePage(blankPage);
+            HeapPageId npid;
+            synchronized (this) {
+                npid = new HeapPageId(getId(), numPages());
+                HeapPage blankPage = new HeapPage(npid, HeapPage.createEmptyPageData());
+                //write page to disk
+                writePage(blankPage);
+            }
             //read page from bufferpool
             HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(tid, npid, Permissions.READ_WRITE);
             newPage.insertTuple(t);
             newPage.markDirty(true, tid);
             affectedPages.add(newPage);
+            fsm.set(npid.pageNumber(), newPage.getNumEmptySlots() != 0);
         }
         return affectedPages;
     }
@@ -164,58 +286,130 @@ public class HeapFile implements DbFile {
         // t->pageid, -> page
         ArrayList<Page> affectedPages = new ArrayList<>();
         PageId pid = t.getRecordId().getPageId();
-        HeapPage affectedPage = null;
-        for (int i = 0; i < numPages(); i++) {
-            if (i == pid.pageNumber()) {
-                affectedPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-                affectedPage.deleteTuple(t);
-                affectedPages.add(affectedPage);
-            }
-        }
-        if (affectedPages.size()==0) {
+        if (pid.pageNumber() < 0 || pid.pageNumber() >= numPages()) {
             throw new DbException("tuple " + t + " is not in this table");
         }
+        HeapPage affectedPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        affectedPage.deleteTuple(t);
+        affectedPages.add(affectedPage);
+        try {
+            freeSpace().set(pid.pageNumber(), true);
+        } catch (IOException e) {
+            throw new DbException("could not update the free space map: " + e);
+        }
         return affectedPages;
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, 0, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Returns an iterator over the tuples on the pages of range. Pages past
+     * the end of the file are skipped.
+     *
+     * @see PageRange#split
+     */
+    public DbFileIterator iterator(TransactionId tid, PageRange range) {
+        return iterator(tid, range, false);
+    }
+
+    /**
+     * Returns an iterator over the tuples on the pages of range, like
+     * iterator(tid, range). If bulk is true, the pages are read through a
+     * BufferRing even if the table fits in the buffer pool, so that a
+     * one-off scan such as collecting statistics keeps the pages in the pool.
+     *
+     * @see BufferPool#newRing
+     */
+    public DbFileIterator iterator(TransactionId tid, PageRange range, boolean bulk) {
+        return new HeapFileIterator(tid, range.getStart(), range.getEnd(), bulk);
+    }
+
+    /**
+     * Returns an iterator over the tuples on the pages of range that reads
+     * them through ring, or through the whole pool if ring is null. The
+     * caller owns the ring, and releases it when it is done with it.
+     */
+    DbFileIterator iterator(TransactionId tid, PageRange range, BufferRing ring) {
+        return new HeapFileIterator(tid, range.getStart(), range.getEnd(), ring);
     }
 
     private class HeapFileIterator implements DbFileIterator {
 
+        private final int start;
+        private final int end;
         private int curPage = 0;
         private Iterator<Tuple> curItr = null;
         private TransactionId tid;
         private boolean open = false;
+        private final boolean bulk;
+        private final boolean sharedRing; // ring is the caller's
+        private BufferRing ring;
+        private HeapPageId pinned = null;
+
+        public HeapFileIterator(TransactionId tid, int start, int end, boolean bulk) {
+            this.tid = tid;
+            this.start = start;
+            this.end = end;
+            this.bulk = bulk;
+            this.sharedRing = false;
+        }
 
-        public HeapFileIterator(TransactionId tid) {
+        public HeapFileIterator(TransactionId tid, int start, int end, BufferRing ring) {
             this.tid = tid;
+            this.start = start;
+            this.end = end;
+            this.bulk = false;
+            this.sharedRing = true;
+            this.ring = ring;
+        }
+
+        private int endPage() {
+            return Math.min(end, numPages());
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             open = true;
-            curPage = 0;
-            if (curPage >= numPages()) {
+            curPage = start;
+            if (curPage >= endPage()) {
                 return;
             }
-            // all getPage op must be done by BufferPool, except DbFile.readPage
-            curItr = ((HeapPage) Database.getBufferPool().getPage(tid,
-                    new HeapPageId(getId(), curPage), Permissions.READ_ONLY))
-                    .iterator();
+            // a large table is read through a ring, to keep the pool's pages
+            if (!sharedRing) {
+                BufferPool bp = Database.getBufferPool();
+                ring = bulk ? bp.newRing() : bp.newScanRing(numPages());
+            }
+            readPage();
             advance();
         }
 
+        /** Read and pin curPage, which stays pinned while it is iterated. */
+        private void readPage() throws DbException, TransactionAbortedException {
+            HeapPageId pid = new HeapPageId(getId(), curPage);
+            // all getPage op must be done by BufferPool, except DbFile.readPage
+            curItr = ((HeapPage) Database.getBufferPool().getPinnedPage(tid, pid,
+                    Permissions.READ_ONLY, ring)).iterator();
+            pinned = pid;
+        }
+
+        private void unpinPage() {
+            if (pinned != null) {
+                Database.getBufferPool().unpinPage(pinned);
+                pinned = null;
+            }
+        }
+
         private void advance() throws DbException, TransactionAbortedException {
             while (!curItr.hasNext()) {
+                // the page is done with before the next one takes a frame
+                unpinPage();
                 curPage++;
-                if (curPage < numPages()) {
-                    curItr = ((HeapPage) Database.getBufferPool().getPage(tid,
-                            new HeapPageId(getId(), curPage),
-                            Permissions.READ_ONLY)).iterator();
+                if (curPage < endPage()) {
+                    readPage();
                 } else {
                     break;
                 }
@@ -225,10 +419,11 @@ public class HeapFile implements DbFile {
         @Override
         public boolean hasNext() throws DbException,
                 TransactionAbortedException {
-            if (!open) {
+            if (!open || curItr == null) {
                 return false;
             }
-            return curPage < numPages();
+            // advance() leaves curItr exhausted only past the last page
+            return curItr.hasNext();
         }
 
         @Override
@@ -256,9 +451,14 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
+            unpinPage();
             curItr = null;
-            curPage = 0;
+            curPage = start;
             open = false;
+            if (!sharedRing) {
+                Database.getBufferPool().releaseRing(ring);
+                ring = null;
+            }
         }
 
 
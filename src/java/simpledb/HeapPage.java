@@ -2,10 +2,17 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and decodes a tuple only when it
+ * is first asked for; getInt and getField read one field of a slot without
+ * creating a tuple at all. The bytes, an array or a slice of a
+ * memory-mapped file, are read in place; the first insert or delete copies
+ * them, and updates write into the copy, so getPageData is a copy too.
  *
  * @see HeapFile
  * @see BufferPool
@@ -15,12 +22,17 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    // the bytes of the page: a read-only view of the bytes it was created
+    // from until its first update, then a copy of them in data
+    private volatile ByteBuffer buf;
+    private byte[] data;
+    final int headerSize;
+    final int[] fieldOffsets;
+    final Tuple tuples[]; // decoded tuples, null until asked for
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    ByteBuffer oldData; // buf itself until the first update, never written
+    private final Object oldDataLock = new Object();
 
     private TransactionId lastDirtyOperation;
 
@@ -36,30 +48,34 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * <p> The page reads data in place rather than copying it, and never
+     * writes to it.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes of data, from index 0 on, e.g. a
+     * slice of a memory-mapped file. Like the byte array constructor, the
+     * page reads data in place until it is first updated.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        this.headerSize = getHeaderSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+        if (data.capacity() < headerSize + numSlots * td.getSize())
+            throw new IOException("page data too short");
+
+        this.buf = data.asReadOnlyBuffer();
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -93,10 +109,15 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                // the current bytes of an updated page change with it,
+                // and a mapped file once the page is written back
+                if ((oldData == buf && data != null) || oldData.isDirect())
+                    oldDataRef = ByteBuffer.wrap(copyOf(oldData));
+                else
+                    oldDataRef = oldData;
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -110,10 +131,37 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = buf;
+        }
+    }
+
+    // copy the before image off the page bytes before they are changed, and
+    // make them writable; called holding the page's lock
+    private void beforeUpdate() {
+        synchronized(oldDataLock)
+        {
+        if (data == null) {
+            // the bytes the page was created from stay the before image,
+            // unless they are mapped from the file the page is written to
+            data = copyOf(buf);
+            if (oldData == buf && buf.isDirect())
+                oldData = ByteBuffer.wrap(data.clone()).asReadOnlyBuffer();
+            buf = ByteBuffer.wrap(data);
+        } else if (oldData == buf) {
+            oldData = ByteBuffer.wrap(data.clone()).asReadOnlyBuffer();
+        }
         }
     }
 
+    // a page-sized copy of the bytes of b from index 0 on
+    private static byte[] copyOf(ByteBuffer b) {
+        byte[] copy = new byte[BufferPool.getPageSize()];
+        ByteBuffer d = b.duplicate();
+        d.clear();
+        d.get(copy, 0, Math.min(copy.length, d.remaining()));
+        return copy;
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -124,36 +172,105 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the number of tuple slots on this page, used or not
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    // the offset of field j of slot i in data
+    private int offset(int i, int j) {
+        if (i < 0 || i >= numSlots)
+            throw new IllegalArgumentException("Invalid slot number.");
+        return headerSize + i * td.getSize() + fieldOffsets[j];
+    }
+
+    /**
+     * Read an int field of a slot straight from the page bytes. The slot
+     * is not checked to be in use.
+     * @param i the slot
+     * @param j the field, which must be of type INT_TYPE
+     */
+    public int getInt(int i, int j) {
+        if (td.getFieldType(j) != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + j + " is not an int");
+        return readInt(offset(i, j));
+    }
+
+    private int readInt(int off) {
+        return buf.getInt(off);
+    }
+
+    /**
+     * Copy the fields of the used slots from slot from on into the rows of
+     * b after its last one, until b is full, and select all rows of b.
+     * @return the slot to continue from, or getNumSlots() if all were copied
+     */
+    int copyTo(TupleBatch b, int from) {
+        int[][] cols = new int[fieldOffsets.length][];
+        for (int j=0; j<cols.length; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                cols[j] = b.ints(j);
+        }
+        ByteBuffer buf = this.buf;
+        int tupleSize = td.getSize();
+        int n = b.numRows();
+        int i = from;
+        for (; i < numSlots && n < b.capacity(); i++) {
+            if ((buf.get(i >> 3) & (1 << (i & 7))) == 0)
+                continue;
+            int base = headerSize + i * tupleSize;
+            for (int j=0; j<cols.length; j++) {
+                if (cols[j] != null)
+                    cols[j][n] = buf.getInt(base + fieldOffsets[j]);
+                else
+                    b.setField(j, n, getField(i, j));
             }
-            return null;
+            n++;
         }
+        b.setNumRows(n);
+        return i;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Decode one field of a slot without decoding the rest of its tuple.
+     * The slot is not checked to be in use.
+     * @param i the slot
+     * @param j the field
+     */
+    public Field getField(int i, int j) {
+        if (td.getFieldType(j) == Type.INT_TYPE)
+            return new IntField(getInt(i, j));
+        int off = offset(i, j);
+        ByteBuffer field = buf.duplicate();
+        field.limit(off + td.getFieldType(j).getLen());
+        field.position(off);
+        DataInputStream dis = new DataInputStream(new ByteBufferInputStream(field));
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return td.getFieldType(j).parse(dis);
         } catch (java.text.ParseException e) {
-            e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
+    /**
+     * @return the tuple in slot i, decoded on first use, or null if the
+     *         slot is empty
+     */
+    synchronized Tuple getTuple(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        if (tuples[i] == null)
+            tuples[i] = decode(i);
+        return tuples[i];
+    }
+
+    // decode the tuple in slot i from data
+    private Tuple decode(int i) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, i));
+        for (int j=0; j<td.numFields(); j++)
+            t.setField(j, getField(i, j));
         return t;
     }
 
@@ -168,65 +285,8 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+    public synchronized byte[] getPageData() {
+        return data != null ? data.clone() : copyOf(buf);
     }
 
     /**
@@ -259,8 +319,11 @@ public class HeapPage implements Page {
         if (!hpid.equals(pid) || !isSlotUsed(tupleNum)) {
             throw new DbException("this tuple is not on this page, or tuple slot is already empty");
         }
-        tuples[tupleNum]=null;
-        markSlotUsed(tupleNum, false);
+        synchronized (this) {
+            beforeUpdate();
+            tuples[tupleNum]=null;
+            markSlotUsed(tupleNum, false);
+        }
     }
 
     /**
@@ -276,13 +339,25 @@ public class HeapPage implements Page {
 
         if (!td.equals(t.getTupleDesc())) throw new DbException("tupleDesc is mismatch");
         //if(getNumTuples() == 0) throw new DbException("the page is full (no empty slots)");
-        for(int i=0;i<getNumTuples();i++) {
-            if (!isSlotUsed(i)) {
-                tuples[i] = t;
-                //update tuples' information
-                t.setRecordId(new RecordId(pid, i));
-                markSlotUsed(i,true);
-                return;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(dos);
+        } catch (IOException e) {
+            throw new DbException("unable to serialize tuple: " + e);
+        }
+        synchronized (this) {
+            for(int i=0;i<getNumTuples();i++) {
+                if (!isSlotUsed(i)) {
+                    beforeUpdate();
+                    System.arraycopy(baos.toByteArray(), 0, data, offset(i, 0), td.getSize());
+                    tuples[i] = null;
+                    //update tuples' information
+                    t.setRecordId(new RecordId(pid, i));
+                    markSlotUsed(i,true);
+                    return;
+                }
             }
         }
         throw new DbException("the page is full (no empty slots)");
@@ -332,10 +407,10 @@ public class HeapPage implements Page {
 
         int byte_num = i/8;
         int offset = i%8;
-        if (byte_num>=header.length){
+        if (byte_num>=headerSize){
             throw new IllegalArgumentException("Invalid byte num in Page.");
         }
-        return (header[byte_num] >> offset) % 2 !=0;
+        return (buf.get(byte_num) >> offset) % 2 !=0;
         //return (header[byte_num] & (1<<offset)) != 0;
     }
 
@@ -347,7 +422,7 @@ public class HeapPage implements Page {
         // not necessary for lab1
         int byteNum = i / 8;
         int posInByte = i % 8;
-        header[byteNum] = editBitInByte(header[byteNum], posInByte, value);
+        data[byteNum] = editBitInByte(data[byteNum], posInByte, value);
     }
 
     private byte editBitInByte(byte target, int posInByte, boolean value) {
@@ -364,14 +439,35 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> tuplesInUse = new ArrayList<Tuple>();
-        for (int i=0;i<tuples.length;i++){
+        // the slots in use are fixed when the iterator is created, and
+        // their tuples are decoded as the iterator reaches them
+        final int[] used = new int[numSlots - getNumEmptySlots()];
+        int n = 0;
+        for (int i=0;i<numSlots;i++){
             if (isSlotUsed(i)){
-                tuplesInUse.add(tuples[i]);
+                used[n++] = i;
             }
         }
-        return tuplesInUse.iterator();
+        return new Iterator<Tuple>() {
+            private int pos = 0;
 
+            public boolean hasNext() {
+                return pos < used.length;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int i = used[pos++];
+                Tuple t = getTuple(i);
+                // deleted since the iterator was created
+                return t != null ? t : decode(i);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
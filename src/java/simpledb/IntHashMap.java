@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive ints to objects, for the int keys of hash joins
+ * and aggregates: keys are neither boxed nor wrapped in Fields, and entries
+ * are not allocated. Open addressing with linear probing over parallel key
+ * and value arrays, kept at most half full.
+ * <p>
+ * Values may not be null, and entries are never removed one at a time, only
+ * all at once by {@link #clear}. Iterate over the entries by slot:
+ * <pre>
+ * for (int s = map.nextSlot(0); s &gt;= 0; s = map.nextSlot(s + 1))
+ *     use(map.keyAt(s), map.valueAt(s));
+ * </pre>
+ */
+public class IntHashMap<V> {
+
+    private int[] keys;
+    private Object[] values; // null marks a free slot
+    private int mask;
+    private int size = 0;
+
+    public IntHashMap() {
+        this(16);
+    }
+
+    /** @param expected the number of entries to make room for */
+    public IntHashMap(int expected) {
+        int capacity = 16;
+        while (capacity < 2 * expected)
+            capacity <<= 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return the value of key, or null if there is none */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return (V) values[i];
+        }
+        return null;
+    }
+
+    /**
+     * Map key to value, replacing any value it had.
+     *
+     * @return the previous value of key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("null value");
+        int i = hash(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > values.length)
+            grow();
+        return null;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] == null)
+                continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (values[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    /** Remove all entries, keeping the capacity. */
+    public void clear() {
+        if (size > 0)
+            Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /** @return the first slot at or after from that holds an entry, or -1 */
+    public int nextSlot(int from) {
+        for (int i = from; i < values.length; i++) {
+            if (values[i] != null)
+                return i;
+        }
+        return -1;
+    }
+
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+}
@@ -52,6 +52,24 @@ public class IntHistogram {
         ntups=nowNTups+1;//write volatile == synchronized leave
     }
 
+    /**
+     * Add the values counted by other, which must have the same buckets, to
+     * this histogram. Used to combine histograms built over disjoint parts
+     * of a table.
+     */
+    void merge(IntHistogram other) {
+        if (other.bins.length != bins.length || other.min != min || other.max != max)
+            throw new IllegalArgumentException("histograms have different buckets");
+        int nowNTups = ntups;//read volatile == synchronized enter
+        double squares = 0;
+        for (int i = 0; i < bins.length; i++) {
+            bins[i] += other.bins[i];
+            squares += (double) bins[i] * bins[i];
+        }
+        this.avgSelectivity = squares;
+        ntups = nowNTups + other.ntups;//write volatile == synchronized leave
+    }
+
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
      * 
@@ -1,8 +1,8 @@
 package simpledb;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import java.util.*;
 /**
- * Knows how to compute some aggregate over a set of IntFields.
+ * Knows how to compute some aggregate over a set of IntFields. Each group
+ * keeps only the running state of its aggregate, not its values.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -12,7 +12,8 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldType;
     private int agfield;
     private Op op;
-    private HashMap<String, ArrayList<Integer>> gbIdxToAggList; //(gbfield_val_toString,  val_list)
+    private HashMap<String, GroupState> gbIdxToAggState; //(gbfield_val_toString,  state)
+    private IntHashMap<GroupState> intGroups; // state by int gbfield_val
 
 
     /**
@@ -36,7 +37,12 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldType = gbfieldtype;
         this.agfield = afield;
         this.op = what;
-        gbIdxToAggList = new HashMap<>();
+        gbIdxToAggState = new HashMap<>();
+        intGroups = new IntHashMap<>();
+    }
+
+    private boolean intGrouping() {
+        return gbfield != Aggregator.NO_GROUPING && gbfieldType == Type.INT_TYPE;
     }
 
     /**
@@ -48,19 +54,49 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+        // val
+        int val = ((IntField)tup.getField(agfield)).getValue();
+        if (intGrouping()) {
+            GroupState.of(intGroups, ((IntField)tup.getField(gbfield)).getValue()).add(val);
+            return;
+        }
         // key
         String key = "NoGrouping";
-        if (!(gbfield == Aggregator.NO_GROUPING) && gbfieldType == Type.INT_TYPE) {
-            key = Integer.toString(((IntField)tup.getField(gbfield)).getValue());
-        } else if (!(gbfield == Aggregator.NO_GROUPING)) {
+        if (!(gbfield == Aggregator.NO_GROUPING)) {
             key = ((StringField)tup.getField(gbfield)).getValue();
         }
-        // val
-        Integer val = ((IntField)tup.getField(agfield)).getValue();
-        if (!gbIdxToAggList.containsKey(key)) {
-            gbIdxToAggList.put(key, new ArrayList<>());
+        GroupState.of(gbIdxToAggState, key).add(val);
+    }
+
+    /**
+     * Merge the selected rows of a batch into the aggregate, reading the
+     * aggregate field straight from its column
+     *
+     * @param b
+     *            the batch containing an aggregate column and a group-by column
+     */
+    public void mergeBatchIntoGroup(TupleBatch b) {
+        int[] vals = b.ints(agfield);
+        if (intGrouping()) {
+            for (int k = 0; k < b.size(); k++) {
+                int row = b.row(k);
+                GroupState.of(intGroups, b.getInt(gbfield, row)).add(vals[row]);
+            }
+            return;
+        }
+        if (gbfield == Aggregator.NO_GROUPING) {
+            if (b.size() == 0)
+                return;
+            GroupState state = GroupState.of(gbIdxToAggState, "NoGrouping");
+            for (int k = 0; k < b.size(); k++)
+                state.add(vals[b.row(k)]);
+            return;
+        }
+        for (int k = 0; k < b.size(); k++) {
+            int row = b.row(k);
+            String key = ((StringField) b.getField(gbfield, row)).getValue();
+            GroupState.of(gbIdxToAggState, key).add(vals[row]);
         }
-        gbIdxToAggList.get(key).add(val);
     }
 
     /**
@@ -77,35 +113,12 @@ public class IntegerAggregator implements Aggregator {
         //UnsupportedOperationException("please implement me for lab3");
         return new DbIterator() {
             private Iterator<String> iter = null; // iter for keys
-
-            private int calculate(ArrayList<Integer> list) {
-                assert !list.isEmpty() : "expect non empty list";
-                int res = 0;
-                switch (op) {
-                    case AVG:
-                        for (int i : list) {
-                            res += i;
-                        }
-                        return res / list.size();
-                    case MAX:
-                        return Collections.max(list);
-                    case MIN:
-                        return Collections.min(list);
-                    case SUM:
-                        for (int i : list) {
-                            res += i;
-                        }
-                        return res;
-                    case COUNT:
-                        return list.size();
-                    default:
-                        throw new NotImplementedException();
-                }
-            }
+            private int slot = -1; // next slot of intGroups, when grouping by int
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
-                    iter = gbIdxToAggList.keySet().iterator();
+                    iter = gbIdxToAggState.keySet().iterator();
+                    slot = intGroups.nextSlot(0);
             }
 
             @Override
@@ -114,7 +127,7 @@ public class IntegerAggregator implements Aggregator {
                 if (iter == null)
                     throw new IllegalStateException("Operator not yet open");
 
-                return iter.hasNext();
+                return intGrouping() ? slot >= 0 : iter.hasNext();
             }
 
             @Override
@@ -122,25 +135,27 @@ public class IntegerAggregator implements Aggregator {
                 if (iter == null)
                     throw new IllegalStateException("Operator not yet open");
 
-                if (!iter.hasNext()) {
+                if (!hasNext()) {
                     throw new NoSuchElementException();
                 }
 
-                // do calculation
-                String key = iter.next();
-                ArrayList<Integer> ls = gbIdxToAggList.get(key);
-                IntField val = new IntField(calculate(ls)); // aggr val
-
                 // construct a Tuple
                 TupleDesc td = getTupleDesc();
                 Tuple tp = new Tuple(td);
 
+                if (intGrouping()) {
+                    tp.setField(0, new IntField(intGroups.keyAt(slot)));
+                    tp.setField(1, new IntField(intGroups.valueAt(slot).result(op)));
+                    slot = intGroups.nextSlot(slot + 1);
+                    return tp;
+                }
+
+                // do calculation
+                String key = iter.next();
+                IntField val = new IntField(gbIdxToAggState.get(key).result(op)); // aggr val
+
                 if (gbfield == Aggregator.NO_GROUPING) {
                     tp.setField(0, val);
-                } else if (gbfieldType == Type.INT_TYPE) {
-                    IntField bgFieldValue = new IntField(Integer.parseInt(key));
-                    tp.setField(0, bgFieldValue);
-                    tp.setField(1, val);
                 } else {
                     StringField bgFieldValue = new StringField(key, key.length());
                     tp.setField(0, bgFieldValue);
@@ -167,6 +182,7 @@ public class IntegerAggregator implements Aggregator {
             @Override
             public void close() {
                 iter = null;
+                slot = -1;
             }
         };
     }
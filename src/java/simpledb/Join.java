@@ -4,6 +4,11 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested loops join that streams its results: the left child
+ * is read a block of Block bytes at a time, the right child is scanned once
+ * per block, and each match is returned as soon as it is found, so only the
+ * current left block is held in memory.
  */
 public class Join extends Operator {
 
@@ -14,9 +19,18 @@ public class Join extends Operator {
     private DbIterator riter;
     private TupleDesc td;
 
-    private TupleIterator joinResults;
     // MySql buffer size
     public static  final int Block = 131072;
+
+    private final int blockBytes;
+    // the current block of left tuples, the first blockLen of cacheBlock
+    private Tuple[] cacheBlock;
+    private int blockLen = 0;
+    private boolean firstBlock = true;
+    // the right tuple being matched against the block, and the next left
+    // tuple to match it with
+    private Tuple right = null;
+    private int leftPos = 0;
     //private ArrayList<Tuple> tuplesPassed;
     //private Iterator<Tuple> tupleIter;
 
@@ -32,7 +46,16 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, Block);
+    }
+
+    /**
+     * Constructor for a join that reads the left child in blocks of
+     * blockBytes bytes rather than Block.
+     */
+    Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockBytes) {
         // some code goes here
+        this.blockBytes = blockBytes;
         joinPred = p;
         liter = child1;
         riter = child2;
@@ -97,46 +120,26 @@ public class Join extends Operator {
         }
     }
 
-    private TupleIterator blockNestedLoopJoin() throws DbException, TransactionAbortedException {
-        LinkedList<Tuple> tuples = new LinkedList<>();
-        int blockSize = Block / liter.getTupleDesc().getSize(); // num of tuples in BlockMemory
-        Tuple[] cacheBlock = new Tuple[blockSize];
-        int index = 0;
-        int length1 = liter.getTupleDesc().numFields();
-        liter.rewind();
-        while (liter.hasNext()) {
-            Tuple left = liter.next();
-            cacheBlock[index++] = left;
-            if (index >= cacheBlock.length) {//如果缓冲区满了，就先处理缓存中的tuple
-                riter.rewind();
-                while (riter.hasNext()) {
-                    Tuple right = riter.next();
-                    for (Tuple cacheLeft : cacheBlock) {
-                        if (joinPred.filter(cacheLeft, right)) {//如果符合条件就合并来自两个表的tuple作为一条结果
-                            Tuple result = mergeTuples(length1, cacheLeft, right);
-                            tuples.add(result);
-                        }
-                    }
-                }
-                Arrays.fill(cacheBlock, null);//清空，给下一次使用
-                index = 0;
-            }
-        }
-        if (index > 0 && index < cacheBlock.length) {//处理缓冲区中剩下的tuple
-            riter.rewind();
-            while (riter.hasNext()) {
-                Tuple right = riter.next();
-                for (Tuple cacheLeft : cacheBlock) {
-                    //
-                    if (cacheLeft == null) break;
-                    if (joinPred.filter(cacheLeft, right)) {
-                        Tuple result = mergeTuples(length1, cacheLeft, right);
-                        tuples.add(result);
-                    }
-                }
-            }
-        }
-        return new TupleIterator(getTupleDesc(), tuples);
+    /**
+     * Read the next block of left tuples.
+     *
+     * @return false if the left child is exhausted
+     */
+    private boolean fillBlock() throws DbException, TransactionAbortedException {
+        Arrays.fill(cacheBlock, 0, blockLen, null);
+        blockLen = 0;
+        while (blockLen < cacheBlock.length && liter.hasNext())
+            cacheBlock[blockLen++] = liter.next();
+        return blockLen > 0;
+    }
+
+    private void resetBlock() {
+        if (cacheBlock != null)
+            Arrays.fill(cacheBlock, 0, blockLen, null);
+        blockLen = 0;
+        firstBlock = true;
+        right = null;
+        leftPos = 0;
     }
 
     private Tuple mergeTuples(int length1, Tuple left, Tuple right) {
@@ -157,8 +160,9 @@ public class Join extends Operator {
         liter.open();
         riter.open();
 
-        joinResults = blockNestedLoopJoin();
-        joinResults.open();
+        int blockSize = Math.max(1, blockBytes / liter.getTupleDesc().getSize()); // num of tuples in BlockMemory
+        cacheBlock = new Tuple[blockSize];
+        resetBlock();
     }
 
     public void close() {
@@ -166,14 +170,15 @@ public class Join extends Operator {
         super.close();
         liter.close();
         riter.close();
-        joinResults.close();
+        resetBlock();
+        cacheBlock = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         liter.rewind();
         riter.rewind();
-        joinResults.rewind();
+        resetBlock();
     }
 
     /**
@@ -196,9 +201,29 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if(joinResults.hasNext())
-            return joinResults.next();
-        return null;
+        int length1 = liter.getTupleDesc().numFields();
+        while (true) {
+            if (right != null) {
+                while (leftPos < blockLen) {
+                    Tuple left = cacheBlock[leftPos++];
+                    if (joinPred.filter(left, right))
+                        return mergeTuples(length1, left, right);
+                }
+                right = null;
+            }
+            if (blockLen > 0 && riter.hasNext()) {
+                right = riter.next();
+                leftPos = 0;
+                continue;
+            }
+            // the block has met every right tuple; the right child is
+            // scanned again for the next one
+            if (!fillBlock())
+                return null;
+            if (!firstBlock)
+                riter.rewind();
+            firstBlock = false;
+        }
     }
 
     @Override
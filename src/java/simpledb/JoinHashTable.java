@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The hash table of a hash join: the tuples of one side of the join, by the
+ * value of their join field. Int join fields are kept in an IntHashMap, so
+ * that neither building nor probing allocates a key; other fields are kept
+ * in a HashMap by Field.
+ *
+ * @see HashEquiJoin
+ * @see ParallelHashJoin
+ */
+class JoinHashTable {
+
+    private final int field;
+    private final IntHashMap<ArrayList<Tuple>> ints;
+    private final HashMap<Field, ArrayList<Tuple>> fields;
+
+    /**
+     * @param td the TupleDesc of the tuples the table is built from
+     * @param field the index of their join field
+     */
+    JoinHashTable(TupleDesc td, int field) {
+        this.field = field;
+        if (td.getFieldType(field) == Type.INT_TYPE) {
+            ints = new IntHashMap<ArrayList<Tuple>>();
+            fields = null;
+        } else {
+            ints = null;
+            fields = new HashMap<Field, ArrayList<Tuple>>();
+        }
+    }
+
+    void add(Tuple t) {
+        Field key = t.getField(field);
+        ArrayList<Tuple> list;
+        if (ints != null) {
+            int k = ((IntField) key).getValue();
+            list = ints.get(k);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                ints.put(k, list);
+            }
+        } else {
+            list = fields.get(key);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                fields.put(key, list);
+            }
+        }
+        list.add(t);
+    }
+
+    /** @return the tuples whose join field equals key, or null if none */
+    ArrayList<Tuple> get(Field key) {
+        if (ints == null)
+            return fields.get(key);
+        if (!(key instanceof IntField))
+            return null;
+        return ints.get(((IntField) key).getValue());
+    }
+
+    /**
+     * @return the tuples whose join field equals column j of row row of b,
+     *         or null if none
+     */
+    ArrayList<Tuple> get(TupleBatch b, int j, int row) {
+        if (ints != null && b.getTupleDesc().getFieldType(j) == Type.INT_TYPE)
+            return ints.get(b.getInt(j, row));
+        return get(b.getField(j, row));
+    }
+
+    /** @return every list of tuples in the table, one per key */
+    List<ArrayList<Tuple>> lists() {
+        if (ints == null)
+            return new ArrayList<ArrayList<Tuple>>(fields.values());
+        List<ArrayList<Tuple>> lists = new ArrayList<ArrayList<Tuple>>(ints.size());
+        for (int s = ints.nextSlot(0); s >= 0; s = ints.nextSlot(s + 1))
+            lists.add(ints.valueAt(s));
+        return lists;
+    }
+
+    void clear() {
+        if (ints != null)
+            ints.clear();
+        else
+            fields.clear();
+    }
+}
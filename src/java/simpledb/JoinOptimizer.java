@@ -34,6 +34,10 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The join is a HashEquiJoin if the optimizer chose a hash join for lj
+     * (see {@link LogicalJoinNode#hashJoin}), and a block nested loops Join
+     * otherwise.
      * 
      * @param lj
      *            The join being considered
@@ -68,14 +72,17 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.hashJoin && lj.p == Predicate.Op.EQUALS)
+            j = new HashEquiJoin(p, plan1, plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
     /**
-     * Estimate the cost of a join.
+     * Estimate the cost of a join computed with block nested loops.
      * 
      * The cost of the join should be calculated based on the join algorithm (or
      * algorithms) that you implemented for Lab 2. It should be a function of
@@ -131,6 +138,26 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimate the cost of a join computed with a HashEquiJoin, in the units
+     * of {@link #estimateJoinCost}. The hash table is built from the left
+     * side, and the right side probes it; inserting or probing a tuple costs
+     * about one predicate application. If the left side does not fit into
+     * one table, both sides are partitioned on disk first.
+     *
+     * @return the cost, or Double.MAX_VALUE if j cannot be computed with a
+     *         hash join because it is not an equi-join of two tables
+     */
+    public double estimateHashJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || j.p != Predicate.Op.EQUALS)
+            return Double.MAX_VALUE;
+        if (card1 <= HashEquiJoin.MAP_SIZE)
+            return cost1 + cost2 + (double) card1 + (double) card2;
+        // every tuple is also hashed to a partition, written and read back
+        return cost1 + cost2 + 4.0 * card1 + 4.0 * card2;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -274,6 +301,8 @@ public class JoinOptimizer {
         // 11. return optjoin(j)
 
         int numJoinNodes = joins.size();
+        if (numJoinNodes == 0)
+            return joins;
         PlanCache pc = new PlanCache();
         Set<LogicalJoinNode> wholeSet = null;
         for (int i = 1; i <= numJoinNodes; i++) {
@@ -425,19 +454,30 @@ public class JoinOptimizer {
             }
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
+        // either side may be the outer one, or the one a hash join builds
+        // its table from; the cheapest of the four joins is chosen
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
+        double[] costs = {
+                // case where prevbest is left
+                estimateJoinCost(j, t1card, t2card, t1cost, t2cost),
+                estimateJoinCost(j2, t2card, t1card, t2cost, t1cost),
+                estimateHashJoinCost(j, t1card, t2card, t1cost, t2cost),
+                estimateHashJoinCost(j2, t2card, t1card, t2cost, t1cost) };
+        int best = 0;
+        for (int i = 1; i < costs.length; i++) {
+            if (costs[i] < costs[best])
+                best = i;
+        }
+        double cost1 = costs[best];
+        if (best % 2 == 1) {
             boolean tmp;
             j = j2;
-            cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
+        if (best >= 2)
+            j = j.useHashJoin();
         if (cost1 >= bestCostSoFar)
             return null;
 
@@ -0,0 +1,292 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager grants page-level shared and exclusive locks to transactions,
+ * and is used by the BufferPool to enforce strict two-phase locking: locks
+ * are acquired as pages are fetched and are only released together, when the
+ * transaction completes.
+ * <p>
+ * The lock table is split into stripes by page id, each protected by its own
+ * latch, so transactions locking unrelated pages do not contend. A request
+ * that cannot be granted waits on a condition of the page's lock and is woken
+ * when a holder releases it; nothing spins.
+ * <p>
+ * Deadlocks are detected when they form: every blocked request adds its
+ * edges to a {@link WaitsForGraph} and checks whether they close a cycle. The
+ * youngest transaction on the cycle is chosen as the victim and its pending
+ * request fails with a TransactionAbortedException.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Number of lock table stripes; must be a power of two. */
+    private static final int NUM_STRIPES = 64;
+
+    private static class PageLock {
+        final HashSet<TransactionId> sharers = new HashSet<TransactionId>();
+        TransactionId exclusive = null;
+        int waiters = 0;
+        final Condition released;
+
+        PageLock(Condition released) {
+            this.released = released;
+        }
+
+        boolean isFree() {
+            return exclusive == null && sharers.isEmpty() && waiters == 0;
+        }
+
+        boolean grantable(TransactionId tid, boolean exclusiveMode) {
+            if (tid.equals(exclusive))
+                return true;
+            if (exclusive != null)
+                return false;
+            if (!exclusiveMode)
+                return true;
+            // an exclusive lock, or an upgrade by the only sharer
+            return sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid));
+        }
+
+        /** @return the transactions other than tid holding this lock */
+        Set<TransactionId> holdersExcept(TransactionId tid) {
+            HashSet<TransactionId> holders = new HashSet<TransactionId>(sharers);
+            if (exclusive != null)
+                holders.add(exclusive);
+            holders.remove(tid);
+            return holders;
+        }
+
+        void grant(TransactionId tid, boolean exclusiveMode) {
+            if (tid.equals(exclusive))
+                return;
+            if (exclusiveMode) {
+                sharers.remove(tid);
+                exclusive = tid;
+            } else {
+                sharers.add(tid);
+            }
+        }
+    }
+
+    private static class Stripe {
+        final ReentrantLock latch = new ReentrantLock();
+        final HashMap<PageId, PageLock> locks = new HashMap<PageId, PageLock>();
+    }
+
+    private final Stripe[] stripes;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> lockedPages;
+    private final WaitsForGraph waitsFor = new WaitsForGraph();
+
+    private final AtomicLong deadlocksDetected = new AtomicLong();
+    private final AtomicLong victimsAborted = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    public LockManager() {
+        stripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++)
+            stripes[i] = new Stripe();
+        lockedPages = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (NUM_STRIPES - 1)];
+    }
+
+    /**
+     * Acquire a lock on pid for tid, blocking until it can be granted.
+     * READ_ONLY requests a shared lock and READ_WRITE an exclusive lock; a
+     * transaction that already holds a shared lock is upgraded.
+     *
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *   of a deadlock; the caller should abort tid
+     */
+    public void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusiveMode = perm == Permissions.READ_WRITE;
+        Stripe s = stripeFor(pid);
+        s.latch.lock();
+        try {
+            PageLock lock = s.locks.get(pid);
+            if (lock == null) {
+                lock = new PageLock(s.latch.newCondition());
+                s.locks.put(pid, lock);
+            }
+            if (!lock.grantable(tid, exclusiveMode)) {
+                lock.waiters++;
+                boolean granted = false;
+                long start = System.nanoTime();
+                WaitsForGraph.Waiter self = new WaitsForGraph.Waiter(tid, s.latch, lock.released);
+                try {
+                    while (!lock.grantable(tid, exclusiveMode)) {
+                        if (waitsFor.isVictim(tid))
+                            throw victimAborted();
+                        TransactionId victim = waitsFor.waitFor(self, lock.holdersExcept(tid));
+                        if (victim == null) {
+                            lock.released.await();
+                            continue;
+                        }
+                        deadlocksDetected.incrementAndGet();
+                        if (victim.equals(tid))
+                            throw victimAborted();
+                        // wake the victim without holding our latch, so that
+                        // two detectors never wait on each other's stripes
+                        List<WaitsForGraph.Waiter> others = waitsFor.waitersOf(victim);
+                        if (!others.isEmpty()) {
+                            s.latch.unlock();
+                            try {
+                                for (WaitsForGraph.Waiter other : others)
+                                    other.wake();
+                            } finally {
+                                s.latch.lock();
+                            }
+                        }
+                    }
+                    granted = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                } finally {
+                    waitsFor.doneWaiting(self);
+                    waits.incrementAndGet();
+                    waitNanos.addAndGet(System.nanoTime() - start);
+                    lock.waiters--;
+                    if (!granted && lock.isFree())
+                        s.locks.remove(pid);
+                }
+            }
+            lock.grant(tid, exclusiveMode);
+            // a new holder changes what the remaining waiters wait for
+            if (lock.waiters > 0)
+                lock.released.signalAll();
+        } finally {
+            s.latch.unlock();
+        }
+        locked(tid, pid);
+    }
+
+    /**
+     * Acquire a lock on pid for tid like acquireLock, but only if it can be
+     * granted right away.
+     *
+     * @return true if tid now holds the lock, false if it would have to wait
+     */
+    public boolean tryAcquireLock(TransactionId tid, PageId pid, Permissions perm) {
+        boolean exclusiveMode = perm == Permissions.READ_WRITE;
+        Stripe s = stripeFor(pid);
+        s.latch.lock();
+        try {
+            PageLock lock = s.locks.get(pid);
+            if (lock == null) {
+                lock = new PageLock(s.latch.newCondition());
+                s.locks.put(pid, lock);
+            } else if (!lock.grantable(tid, exclusiveMode)) {
+                return false;
+            }
+            lock.grant(tid, exclusiveMode);
+            if (lock.waiters > 0)
+                lock.released.signalAll();
+        } finally {
+            s.latch.unlock();
+        }
+        locked(tid, pid);
+        return true;
+    }
+
+    // remember that tid holds a lock on pid
+    private void locked(TransactionId tid, PageId pid) {
+        Set<PageId> held = lockedPages.get(tid);
+        if (held == null) {
+            held = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            Set<PageId> raced = lockedPages.putIfAbsent(tid, held);
+            if (raced != null)
+                held = raced;
+        }
+        held.add(pid);
+    }
+
+    private TransactionAbortedException victimAborted() {
+        victimsAborted.incrementAndGet();
+        return new TransactionAbortedException();
+    }
+
+    /** Release whatever lock tid holds on pid. */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        Set<PageId> held = lockedPages.get(tid);
+        if (held != null)
+            held.remove(pid);
+        unlock(tid, pid);
+    }
+
+    /** Release every lock held by tid. */
+    public void releaseAllLocks(TransactionId tid) {
+        waitsFor.transactionComplete(tid);
+        Set<PageId> held = lockedPages.remove(tid);
+        if (held == null)
+            return;
+        for (PageId pid : held)
+            unlock(tid, pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        Stripe s = stripeFor(pid);
+        s.latch.lock();
+        try {
+            PageLock lock = s.locks.get(pid);
+            if (lock == null)
+                return;
+            if (tid.equals(lock.exclusive))
+                lock.exclusive = null;
+            lock.sharers.remove(tid);
+            if (lock.isFree())
+                s.locks.remove(pid);
+            else
+                lock.released.signalAll();
+        } finally {
+            s.latch.unlock();
+        }
+    }
+
+    /** @return true if tid holds a shared or exclusive lock on pid */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> held = lockedPages.get(tid);
+        return held != null && held.contains(pid);
+    }
+
+    /** @return the pages tid currently holds locks on (a live view) */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> held = lockedPages.get(tid);
+        if (held == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(held);
+    }
+
+    /** @return the number of deadlocks detected so far */
+    public long getDeadlocksDetected() {
+        return deadlocksDetected.get();
+    }
+
+    /** @return the number of lock requests aborted as deadlock victims */
+    public long getVictimsAborted() {
+        return victimsAborted.get();
+    }
+
+    /** @return the average time blocked lock requests waited, in milliseconds */
+    public double getAverageWaitMillis() {
+        long n = waits.get();
+        return n == 0 ? 0 : waitNanos.get() / (n * 1e6);
+    }
+}
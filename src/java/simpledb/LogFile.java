@@ -3,7 +3,11 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -17,9 +21,9 @@ two-phase locking discipline are followed.  <p>
 Many of the methods here are synchronized (to prevent concurrent log
 writes from happening); many of the methods in BufferPool are also
 synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
+log records (on page flushed) and the log file reads the BufferPool
+(on checkpoints) and flushes its pages (on rollback and recovery.)
+This can lead to deadlock.  For that reason, any LogFile operation that needs to access the BufferPool
 must not be declared synchronized and must begin with a block like:
 
 <p>
@@ -32,6 +36,40 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<p>
+<u> Recovery note: </u>
+<p>
+
+The BufferPool runs STEAL / NO-FORCE: it may write a page dirtied by a
+live transaction to disk, but logs an UPDATE record for it and forces
+the log first, and at commit it logs UPDATE records for the pages of
+the transaction instead of writing them.  Aborts are undone with
+rollback(), and crashes are repaired by recover(), both from the before
+and after images of those records.
+
+<p>
+<u> Fuzzy checkpoints: </u>
+<p>
+
+A checkpoint writes no pages.  It records the active transactions and
+the dirty page table of the BufferPool: every page whose logged changes
+may not be on disk yet, with the offset of the first such record.
+Recovery starts at the oldest of these, so the BufferPool is only
+locked to copy its table.  The page cleaner of the BufferPool (see
+BufferPool.startPageCleaner()) writes the pages with the oldest records
+in the background, which keeps recovery, and the log, short.
+
+<p>
+<u> Group commit: </u>
+<p>
+
+By default every commit forces the log on its own.  In group commit
+mode (see setGroupCommit()) a committer appends its COMMIT record and
+then waits until the log is forced past it.  The first committer to
+find no force in progress becomes the leader: it optionally waits a
+short window for others to append, then forces the log once for all of
+them, and the committers that arrived meanwhile form the next batch.
 */
 
 /**
@@ -51,30 +89,45 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  A serialized page
+begins with a byte tag naming its page class; pages of other classes
+are tagged OTHER_PAGE and followed by their page and id class names.
+
+<li>DELTA records replace UPDATE records for heap pages and B+ tree
+leaf pages.  They consist of a page tag and id, and of the byte ranges
+that differ between the before and after image, each with its offset,
+length, before bytes and after bytes.  See {@link PageDelta}.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, and of the
+dirty page table.  The format of the record is an integer count of the
+number of transactions, as well as a long integer transaction id and a
+long integer first record offset for each active transaction; then an
+integer count of the number of dirty pages, as well as a tagged page id
+and a long integer first record offset for each dirty page; then the long
+integer offset redo starts at, which is no later than any of the dirty
+pages' records.
 
 </ul>
 
+<p> Records are appended through a {@link LogWriter}, which buffers
+them; the file is only read back after flushing it.
+
 */
 
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private RandomAccessFile raf; // for reading, and the header
+    private LogWriter out; // appends records; protected by this
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,17 +135,45 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
     long currentOffset = -1;//protected by this
+    // bytes cut off the front of the log by truncation; the BufferPool
+    // keeps log sequence numbers (LSNs), offsets the records would have
+    // if the log had never been truncated
+    long truncatedBytes = 0; //protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    private volatile boolean deltaLogging = true;
+
+    // group commit; see setGroupCommit()
+    private volatile boolean groupCommit = false;
+    private volatile long groupCommitWaitNanos = 0;
+    private final ReentrantLock commitLatch = new ReentrantLock();
+    private final Condition forced = commitLatch.newCondition();
+    private boolean forcing = false; // protected by commitLatch
+
+    // the log is durable up to durableOffset; truncation rewrites offsets,
+    // so it forces the new log and moves to a new epoch
+    private volatile long durableOffset = 0;
+    private volatile int logEpoch = 0;
+
+    // commit metrics
+    static final int LATENCY_SAMPLES = 8192;
+    int unforcedCommits = 0; // protected by this
+    long commitBatches = 0; // protected by this
+    long batchedCommits = 0; // protected by this
+    int maxCommitBatch = 0; // protected by this
+    private final long[] commitLatencies = new long[LATENCY_SAMPLES]; // recent samples, in ns
+    private long commitsTimed = 0; // protected by commitLatencies
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -107,6 +188,7 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        out = new LogWriter(raf.getChannel(), raf.length());
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -130,8 +212,8 @@ public class LogFile {
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            out.reset(raf.length());
+            currentOffset = out.offset();
         }
     }
 
@@ -158,10 +240,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = out.offset();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,21 +251,159 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  In group commit mode the force may
+        be shared with other committing transactions.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long start = System.nanoTime();
+        long commitOffset;
+        int epoch;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = out.offset();
+            tidToFirstLogRecord.remove(tid.getId());
+            unforcedCommits++;
+            commitOffset = currentOffset;
+            epoch = logEpoch;
+            if (!groupCommit) {
+                force();
+            }
+        }
+        if (groupCommit) {
+            awaitDurable(commitOffset, epoch);
+        }
+
+        synchronized (commitLatencies) {
+            commitLatencies[(int) (commitsTimed++ % LATENCY_SAMPLES)] = System.nanoTime() - start;
+        }
+    }
+
+    // wait until the log is forced past offset, forcing it ourselves as
+    // the leader of a batch if no other committer is doing so
+    private void awaitDurable(long offset, int epoch) throws IOException {
+        commitLatch.lock();
+        try {
+            while (logEpoch == epoch && durableOffset < offset) {
+                if (forcing) {
+                    forced.awaitUninterruptibly();
+                    continue;
+                }
+                forcing = true;
+                commitLatch.unlock();
+                try {
+                    if (groupCommitWaitNanos > 0) {
+                        // let more committers join this batch
+                        LockSupport.parkNanos(groupCommitWaitNanos);
+                    }
+                    forceBatch();
+                } finally {
+                    commitLatch.lock();
+                    forcing = false;
+                    forced.signalAll();
+                }
+            }
+        } finally {
+            commitLatch.unlock();
+        }
+    }
+
+    // force the log like force(), but without holding this during the
+    // fsync, so that the next batch can append its records meanwhile
+    private void forceBatch() throws IOException {
+        FileChannel channel;
+        long offset;
+        int epoch, commits;
+        synchronized (this) {
+            out.flush();
+            channel = raf.getChannel();
+            offset = currentOffset;
+            epoch = logEpoch;
+            commits = unforcedCommits;
+            unforcedCommits = 0;
+        }
+        try {
+            channel.force(true);
+        } catch (ClosedChannelException e) {
+            // truncation replaced the log, and forced the new one
+            if (logEpoch == epoch)
+                throw e;
+        }
+        synchronized (this) {
+            if (logEpoch == epoch && offset > durableOffset) {
+                durableOffset = offset;
+            }
+            countBatch(commits);
+        }
+    }
+
+    // record that one force made the given number of commits durable
+    private void countBatch(int commits) {
+        if (commits > 0) {
+            commitBatches++;
+            batchedCommits += commits;
+            maxCommitBatch = Math.max(maxCommitBatch, commits);
+        }
+    }
+
+    /** Enable or disable group commit.
+        @param enabled Whether committers share log forces
+        @param maxWaitMicros How long the leader of a batch waits for
+          more committers before forcing the log; 0 forces at once, and
+          only committers that arrive during a force are batched
+    */
+    public void setGroupCommit(boolean enabled, long maxWaitMicros) {
+        groupCommitWaitNanos = maxWaitMicros * 1000;
+        groupCommit = enabled;
+    }
+
+    /** @return the number of log forces that made at least one commit durable */
+    public synchronized long getCommitBatches() {
+        return commitBatches;
+    }
+
+    /** @return the average number of commits made durable by one force */
+    public synchronized double getAverageCommitBatchSize() {
+        return commitBatches == 0 ? 0 : batchedCommits / (double) commitBatches;
+    }
+
+    /** @return the largest number of commits made durable by one force */
+    public synchronized int getMaxCommitBatchSize() {
+        return maxCommitBatch;
+    }
+
+    /** @return the given percentile (0 to 100) of the latency of recent
+        calls to logCommit, in microseconds */
+    public double getCommitLatencyPercentile(double percentile) {
+        long[] samples;
+        synchronized (commitLatencies) {
+            int n = (int) Math.min(commitsTimed, LATENCY_SAMPLES);
+            if (n == 0)
+                return 0;
+            samples = Arrays.copyOf(commitLatencies, n);
+        }
+        Arrays.sort(samples);
+        int i = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+        return samples[Math.max(0, Math.min(i, samples.length - 1))] / 1000.0;
+    }
+
+    /** Reset the commit batch and latency metrics. */
+    public void resetCommitStats() {
+        synchronized (this) {
+            commitBatches = 0;
+            batchedCommits = 0;
+            maxCommitBatch = 0;
+        }
+        synchronized (commitLatencies) {
+            commitsTimed = 0;
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -192,107 +412,125 @@ public class LogFile {
         @param before The before image of the page
         @param after The after image of the page
 
+        @return the LSN of the record
+
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        Debug.log("WRITE, offset = " + currentOffset);
+        long lsn = truncatedBytes + currentOffset;
+        PageImage beforeImage = PageImage.of(before);
+        PageImage afterImage = PageImage.of(after);
+        if (deltaLogging && PageDelta.supports(afterImage.tag)) {
+            /* delta record consists of
+
+               record type
+               transaction id
+               changed byte ranges (see PageDelta)
+               start offset
+            */
+            out.writeInt(DELTA_RECORD);
+            out.writeLong(tid.getId());
+            PageDelta.diff(beforeImage, afterImage).write(out);
+        } else {
+            /* update record conists of
+
+               record type
+               transaction id
+               before page data (see writePageData)
+               after page data
+               start offset
+            */
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            beforeImage.write(out);
+            afterImage.write(out);
+        }
+        out.writeLong(currentOffset);
+        currentOffset = out.offset();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    /** Log updates of heap pages and B+ tree leaf pages as DELTA
+        records (the default) or as full UPDATE records.
+    */
+    public void setDeltaLogging(boolean enabled) {
+        deltaLogging = enabled;
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    void writePageData(LogWriter out, Page p) throws IOException{
+        PageImage.of(p).write(out);
     }
 
     Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+        return PageImage.read(raf).toPage();
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    /** An UPDATE or DELTA record, as read back by rollback and recovery,
+        which apply it to working images of the pages they repair. */
+    private static class LoggedUpdate {
+        final PageImage before; // UPDATE records only
+        final PageImage after; // UPDATE records only
+        final PageDelta delta; // DELTA records only
+
+        LoggedUpdate(PageImage before, PageImage after, PageDelta delta) {
+            this.before = before;
+            this.after = after;
+            this.delta = delta;
+        }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
+        static LoggedUpdate read(RandomAccessFile raf, int type) throws IOException {
+            if (type == DELTA_RECORD) {
+                return new LoggedUpdate(null, null, PageDelta.read(raf));
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+            PageImage before = PageImage.read(raf);
+            return new LoggedUpdate(before, PageImage.read(raf), null);
+        }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+        void write(LogWriter out) throws IOException {
+            if (delta != null) {
+                delta.write(out);
+            } else {
+                before.write(out);
+                after.write(out);
+            }
+        }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        PageId pid() {
+            return delta != null ? delta.pid : after.pid;
+        }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        void redo(HashMap<PageId,PageImage> pages) {
+            if (delta != null) {
+                delta.redo(working(pages, delta).data);
+            } else {
+                pages.put(after.pid, after.copy());
+            }
+        }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+        void undo(HashMap<PageId,PageImage> pages) {
+            if (delta != null) {
+                delta.undo(working(pages, delta).data);
+            } else {
+                pages.put(before.pid, before.copy());
+            }
         }
-        return newPage;
 
+        // the working image of the page of d, read from disk on first use
+        private static PageImage working(HashMap<PageId,PageImage> pages, PageDelta d) {
+            PageImage image = pages.get(d.pid);
+            if (image == null) {
+                image = PageImage.load(d.pid, d.tag);
+                pages.put(d.pid, image);
+            }
+            return image;
+        }
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,51 +545,68 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = out.offset();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The
+        checkpoint is fuzzy: it records the dirty page table of the
+        BufferPool instead of flushing its pages.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        // pages first logged from here on are redone from here on, so
+        // the table may be read without holding the log
+        long redoLsn;
+        synchronized (this) {
+            preAppend();
+            redoLsn = truncatedBytes + currentOffset;
+        }
+        Map<PageId,Long> dirtyPages = Database.getBufferPool().getDirtyPageTable();
+
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            startCpOffset = out.offset();
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                out.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                out.writeLong(tidToFirstLogRecord.get(key));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            long redoOffset = redoLsn - truncatedBytes;
+            out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId,Long> e : dirtyPages.entrySet()) {
+                long recOffset = e.getValue() - truncatedBytes;
+                PageImage.writeTaggedId(out, e.getKey());
+                out.writeLong(recOffset);
+                redoOffset = Math.min(redoOffset, recOffset);
             }
+            out.writeLong(redoOffset);
+            out.writeLong(currentOffset);
+            currentOffset = out.offset();
+
+            //once the CP is on disk, make sure the CP location at the
+            // beginning of the log file is updated
+            force();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
@@ -361,6 +616,7 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        out.flush();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -386,13 +642,21 @@ public class LogFile {
                     minLogRecord = firstLogRecord;
                 }
             }
+
+            // redo starts no later than the records of any dirty page
+            int numDirty = raf.readInt();
+            while (numDirty-- > 0) {
+                PageImage.readTaggedId(raf);
+                raf.readLong();
+            }
+            minLogRecord = Math.min(minLogRecord, raf.readLong());
         }
 
         // we can truncate everything before minLogRecord
         File newFile = new File("logtmp" + System.currentTimeMillis());
         RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        LogWriter newOut = new LogWriter(logNew.getChannel(), 0);
+        newOut.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
 
         raf.seek(minLogRecord);
 
@@ -401,38 +665,45 @@ public class LogFile {
             try {
                 int type = raf.readInt();
                 long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+                long newStart = newOut.offset();
 
                 Debug.log("NEW START = " + newStart);
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+                newOut.writeInt(type);
+                newOut.writeLong(record_tid);
 
                 switch (type) {
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+                case DELTA_RECORD:
+                    LoggedUpdate.read(raf, type).write(newOut);
                     break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
+                    newOut.writeInt(numXactions);
                     while (numXactions-- > 0) {
                         long xid = raf.readLong();
                         long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                        newOut.writeLong(xid);
+                        newOut.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                    }
+                    int numDirty = raf.readInt();
+                    newOut.writeInt(numDirty);
+                    while (numDirty-- > 0) {
+                        PageImage.writeTaggedId(newOut, PageImage.readTaggedId(raf));
+                        newOut.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
                     }
+                    newOut.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
                     break;
                 case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
+                    // only live transactions; finished ones must not hold
+                    // back the next truncation
+                    if (tidToFirstLogRecord.containsKey(record_tid))
+                        tidToFirstLogRecord.put(record_tid,newStart);
                     break;
                 }
 
                 //all xactions finish with a pointer
-                logNew.writeLong(newStart);
+                newOut.writeLong(newStart);
                 raf.readLong();
 
             } catch (EOFException e) {
@@ -442,14 +713,21 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        // commits waiting for a force are durable once the new log is
+        newOut.flush();
+        logNew.getChannel().force(true);
+        logNew.close();
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
         raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
+        out = new LogWriter(raf.getChannel(), raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        currentOffset = out.offset();
+        truncatedBytes += minLogRecord - LONG_SIZE;
+        logEpoch++;
+        durableOffset = currentOffset;
         //print();
     }
 
@@ -466,19 +744,88 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null) {
+                    // no BEGIN record, so none of its updates are logged
+                    return;
+                }
+
+                ArrayList<LoggedUpdate> updates = new ArrayList<LoggedUpdate>();
+                out.flush();
+                raf.seek(firstRecord);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long record_tid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                    case DELTA_RECORD:
+                        LoggedUpdate u = LoggedUpdate.read(raf, type);
+                        if (record_tid == tid.getId()) {
+                            updates.add(u);
+                        }
+                        break;
+                    case CHECKPOINT_RECORD:
+                        skipCheckpoint();
+                        break;
+                    }
+                    raf.readLong();
+                }
+
+                // undo in reverse, so the first before image logged for a
+                // page wins; later ones include stolen changes
+                HashMap<PageId,PageImage> pages = new HashMap<PageId,PageImage>();
+                undo(updates, pages);
+                installPages(pages);
             }
         }
     }
 
+    // skip the transaction list and dirty page table of a checkpoint record
+    private void skipCheckpoint() throws IOException {
+        int numXactions = raf.readInt();
+        raf.seek(raf.getFilePointer() + numXactions * 2 * LONG_SIZE);
+        int numDirty = raf.readInt();
+        while (numDirty-- > 0) {
+            PageImage.readTaggedId(raf);
+            raf.readLong();
+        }
+        raf.readLong();
+    }
+
+    // undo updates onto the working images in pages, last update first
+    private static void undo(ArrayList<LoggedUpdate> updates, HashMap<PageId,PageImage> pages) {
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            updates.get(i).undo(pages);
+        }
+    }
+
+    // write the working images to their files and drop any cached copies;
+    // the copy is dropped first, so that a background write of it cannot
+    // land after the image
+    private void installPages(HashMap<PageId,PageImage> pages) throws IOException {
+        for (PageImage image : pages.values()) {
+            Page p = image.toPage();
+            Database.getBufferPool().discardPage(image.pid);
+            DbFile file = Database.getCatalog().getDatabaseFile(image.pid.getTableId());
+            file.writePage(p);
+            if (file instanceof HeapFile)
+                ((HeapFile) file).restored((HeapPage) p);
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            // with no dirty pages, recovery starts at the checkpoint
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                out.flush();
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -488,23 +835,200 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery starts at the last checkpoint, or earlier at the first
+        record of a transaction that was active when it was taken, or at
+        the first record of a page that was dirty then.  The redo pass
+        repeats history: it applies every UPDATE and DELTA record in log
+        order, and replays the rollback of every transaction that logged
+        an ABORT.  The undo pass then undoes the updates of every
+        transaction that never finished, last first, and logs an ABORT
+        record for it.  Pages are written back once both passes are
+        done.  A record torn by the crash is cut off the end of the log.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                tidToFirstLogRecord.clear();
+                out.flush();
+                if (raf.length() < LONG_SIZE) {
+                    // nothing was ever logged
+                    raf.setLength(0);
+                    raf.seek(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    out.reset(LONG_SIZE);
+                    currentOffset = out.offset();
+                    return;
+                }
+
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                long start = raf.getFilePointer();
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    start = cpLoc;
+                    raf.seek(cpLoc);
+                    raf.readInt();
+                    raf.readLong();
+                    int numXactions = raf.readInt();
+                    while (numXactions-- > 0) {
+                        raf.readLong();
+                        long firstLogRecord = raf.readLong();
+                        if (firstLogRecord < start) {
+                            start = firstLogRecord;
+                        }
+                    }
+                    int numDirty = raf.readInt();
+                    while (numDirty-- > 0) {
+                        PageImage.readTaggedId(raf);
+                        raf.readLong();
+                    }
+                    start = Math.min(start, raf.readLong());
+                }
+
+                // redo pass, onto working images of the pages; the updates
+                // of live transactions are kept for undo
+                HashMap<PageId,PageImage> pages = new HashMap<PageId,PageImage>();
+                HashMap<Long,ArrayList<LoggedUpdate>> live = new HashMap<Long,ArrayList<LoggedUpdate>>();
+                HashSet<Long> finished = new HashSet<Long>();
+                long maxTid = -1;
+                long end = start;
+                raf.seek(start);
+                try {
+                    while (true) {
+                        int type = raf.readInt();
+                        long record_tid = raf.readLong();
+                        LoggedUpdate update = null;
+                        if (type == UPDATE_RECORD || type == DELTA_RECORD) {
+                            update = LoggedUpdate.read(raf, type);
+                        } else if (type == CHECKPOINT_RECORD) {
+                            skipCheckpoint();
+                        }
+                        // a record only counts once its trailing offset is on disk
+                        raf.readLong();
+                        end = raf.getFilePointer();
+                        maxTid = Math.max(maxTid, record_tid);
+
+                        switch (type) {
+                        case BEGIN_RECORD:
+                            live.put(record_tid, new ArrayList<LoggedUpdate>());
+                            finished.remove(record_tid);
+                            break;
+                        case UPDATE_RECORD:
+                        case DELTA_RECORD:
+                            update.redo(pages);
+                            // a page flushed after its transaction finished
+                            // logs no change, and needs no undo
+                            if (!finished.contains(record_tid)) {
+                                ArrayList<LoggedUpdate> updates = live.get(record_tid);
+                                if (updates == null) {
+                                    updates = new ArrayList<LoggedUpdate>();
+                                    live.put(record_tid, updates);
+                                }
+                                updates.add(update);
+                            }
+                            break;
+                        case COMMIT_RECORD:
+                            live.remove(record_tid);
+                            finished.add(record_tid);
+                            break;
+                        case ABORT_RECORD:
+                            ArrayList<LoggedUpdate> updates = live.remove(record_tid);
+                            if (updates != null) {
+                                undo(updates, pages);
+                            }
+                            finished.add(record_tid);
+                            break;
+                        }
+                    }
+                } catch (EOFException e) {
+                    // end of the log, possibly in the middle of a torn record
+                }
+                raf.setLength(end);
+                out.reset(end);
+                currentOffset = end;
+
+                // undo pass; strict two-phase locking means no two live
+                // transactions updated the same page
+                for (Map.Entry<Long,ArrayList<LoggedUpdate>> loser : live.entrySet()) {
+                    undo(loser.getValue(), pages);
+                }
+                installPages(pages);
+                for (Map.Entry<Long,ArrayList<LoggedUpdate>> loser : live.entrySet()) {
+                    out.writeInt(ABORT_RECORD);
+                    out.writeLong(loser.getKey());
+                    out.writeLong(currentOffset);
+                    currentOffset = out.offset();
+                }
+                force();
+
+                // new transactions must not reuse ids found in the log
+                if (TransactionId.counter.get() <= maxTid) {
+                    TransactionId.counter.set(maxTid + 1);
+                }
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        // some code goes here
+    public synchronized void print() throws IOException {
+        out.flush();
+        raf.seek(0);
+        System.out.println("0: CHECKPOINT POINTER " + raf.readLong());
+        try {
+            while (true) {
+                long offset = raf.getFilePointer();
+                int type = raf.readInt();
+                long record_tid = raf.readLong();
+                switch (type) {
+                case ABORT_RECORD:
+                    System.out.println(offset + ": ABORT " + record_tid);
+                    break;
+                case COMMIT_RECORD:
+                    System.out.println(offset + ": COMMIT " + record_tid);
+                    break;
+                case BEGIN_RECORD:
+                    System.out.println(offset + ": BEGIN " + record_tid);
+                    break;
+                case UPDATE_RECORD:
+                case DELTA_RECORD:
+                    PageId pid = LoggedUpdate.read(raf, type).pid();
+                    System.out.println(offset + (type == UPDATE_RECORD ? ": UPDATE " : ": DELTA ")
+                            + record_tid + " " + pid.getClass().getSimpleName()
+                            + "(" + pid.getTableId() + ", " + pid.pageNumber() + ")");
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = raf.readInt();
+                    StringBuilder sb = new StringBuilder(offset + ": CHECKPOINT");
+                    while (numXactions-- > 0) {
+                        long xid = raf.readLong();
+                        long xoffset = raf.readLong();
+                        sb.append(" " + xid + "@" + xoffset);
+                    }
+                    int numDirty = raf.readInt();
+                    sb.append(" dirty:");
+                    while (numDirty-- > 0) {
+                        PageId dirty = PageImage.readTaggedId(raf);
+                        sb.append(" " + dirty.getClass().getSimpleName() + "(" + dirty.getTableId()
+                                + ", " + dirty.pageNumber() + ")@" + raf.readLong());
+                    }
+                    sb.append(" redo@" + raf.readLong());
+                    System.out.println(sb);
+                    break;
+                }
+                raf.readLong();
+            }
+        } catch (EOFException e) {
+            // end of the log
+        }
     }
 
     public  synchronized void force() throws IOException {
+        out.flush();
         raf.getChannel().force(true);
+        durableOffset = currentOffset;
+        countBatch(unforcedCommits);
+        unforcedCommits = 0;
     }
 
 }
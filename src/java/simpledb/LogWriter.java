@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * LogWriter appends log records to the end of a log file. Records are
+ * assembled in a reusable direct buffer and written to the file channel in
+ * large chunks, with positional writes, so that reading the log through
+ * another handle does not disturb the append position.
+ * <p>
+ * Data is only in the file once it is flushed; callers must flush before
+ * reading back what they appended, and before forcing the channel.
+ *
+ * @see LogFile
+ */
+class LogWriter {
+
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long flushedOffset; // file offset of the first buffered byte
+
+    /**
+     * @param channel the log file
+     * @param offset the offset the next record is appended at
+     */
+    LogWriter(FileChannel channel, long offset) {
+        this.channel = channel;
+        this.flushedOffset = offset;
+    }
+
+    /** @return the offset of the next byte appended */
+    long offset() {
+        return flushedOffset + buf.position();
+    }
+
+    /** Drop anything buffered and append at offset from now on. */
+    void reset(long offset) {
+        buf.clear();
+        flushedOffset = offset;
+    }
+
+    void writeByte(byte v) throws IOException {
+        if (buf.remaining() < 1)
+            flush();
+        buf.put(v);
+    }
+
+    void writeInt(int v) throws IOException {
+        if (buf.remaining() < 4)
+            flush();
+        buf.putInt(v);
+    }
+
+    void writeLong(long v) throws IOException {
+        if (buf.remaining() < 8)
+            flush();
+        buf.putLong(v);
+    }
+
+    void write(byte[] b) throws IOException {
+        if (buf.remaining() < b.length)
+            flush();
+        if (b.length > buf.capacity()) {
+            writeFully(ByteBuffer.wrap(b));
+            return;
+        }
+        buf.put(b);
+    }
+
+    /**
+     * Write s in the format of DataOutput.writeUTF, so that it can be read
+     * back with RandomAccessFile.readUTF. Only used for class names, whose
+     * UTF-8 and modified UTF-8 encodings are the same.
+     */
+    void writeUTF(String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+        if (buf.remaining() < 2)
+            flush();
+        buf.putShort((short) b.length);
+        write(b);
+    }
+
+    /** Write everything buffered to the file. */
+    void flush() throws IOException {
+        buf.flip();
+        writeFully(buf);
+        buf.clear();
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            flushedOffset += channel.write(b, flushedOffset);
+    }
+}
@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether to compute the join with a hash join rather than nested
+     * loops; chosen by the JoinOptimizer, and only for equi-joins */
+    public boolean hashJoin = false;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +67,14 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a new LogicalJoinNode for the same join, computed with a
+     * hash join that builds its table from t1. */
+    public LogicalJoinNode useHashJoin() {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.hashJoin = true;
+        return j2;
+    }
+    
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -271,6 +272,137 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Pages of a table each partition of a parallel scan must at least have */
+    static final int MIN_PAGES_PER_PARTITION = 256;
+
+    private static volatile boolean parallelPlans = false;
+
+    /** @return true if physical plans may split scans across Exchange workers */
+    public static boolean getParallelPlans() {
+        return parallelPlans;
+    }
+
+    /**
+     * Let physical plans split large scans into partitions read by Exchange
+     * workers, into as many as Exchange.getParallelism(). Off by default.
+     */
+    public static void setParallelPlans(boolean enabled) {
+        parallelPlans = enabled;
+    }
+
+    /**
+     * Split plan into partitions that each scan a disjoint range of pages of
+     * its table, if plan is a chain of Filters over a SeqScan of a heap file
+     * with enough pages to be worth splitting.
+     *
+     * @return the partitions, or null if plan is not split
+     * @see #setParallelPlans
+     * @see Exchange#getParallelism
+     */
+    static DbIterator[] partition(TransactionId t, DbIterator plan) {
+        if (!parallelPlans)
+            return null;
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        DbIterator it = plan;
+        while (it instanceof Filter) {
+            preds.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        if (!(it instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) it;
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(f instanceof HeapFile))
+            return null;
+        List<PageRange> ranges = PageRange.split(((HeapFile) f).numPages(),
+                Exchange.getParallelism(), MIN_PAGES_PER_PARTITION);
+        int n = ranges.size();
+        if (n < 2)
+            return null;
+
+        DbIterator[] parts = new DbIterator[n];
+        for (int i = 0; i < n; i++) {
+            PageRange range = ranges.get(i);
+            // the last partition also reads pages added after planning
+            if (i == n - 1)
+                range = new PageRange(range.getStart(), Integer.MAX_VALUE);
+            DbIterator part = new SeqScan(t, scan.getTableId(), scan.getAlias(), range);
+            for (int k = preds.size() - 1; k >= 0; k--)
+                part = new Filter(preds.get(k), part);
+            parts[i] = part;
+        }
+        return parts;
+    }
+
+    /** @return a Gather over the partitions of plan, or plan if it is not split */
+    static DbIterator gather(TransactionId t, DbIterator plan) {
+        DbIterator[] parts = partition(t, plan);
+        return parts == null ? plan : new Gather(parts);
+    }
+
+    /**
+     * Replace the join j of plan1 and plan2, a Join or a HashEquiJoin, with
+     * a ParallelHashJoin whose partitions scan plan2, if j is an equi-join
+     * and plan2 can be split. Otherwise plan1, which j reads only once, is
+     * gathered if it can be split.
+     */
+    private static DbIterator parallelJoin(TransactionId t, DbIterator j,
+            DbIterator plan1, DbIterator plan2) {
+        JoinPredicate p;
+        if (j instanceof Join)
+            p = ((Join) j).getJoinPredicate();
+        else if (j instanceof HashEquiJoin)
+            p = ((HashEquiJoin) j).getJoinPredicate();
+        else
+            return j;
+        DbIterator[] parts = null;
+        if (p.getOperator() == Predicate.Op.EQUALS)
+            parts = partition(t, plan2);
+        if (parts != null)
+            return new ParallelHashJoin(p, gather(t, plan1), parts);
+        ((Operator) j).setChildren(new DbIterator[] { gather(t, plan1), plan2 });
+        return j;
+    }
+
+    /**
+     * @return an Aggregate of node. If node can be split, each partition is
+     *         aggregated on its own and the partial results are merged; AVG
+     *         and aggregates of string fields are computed from a Gather of
+     *         the partitions instead.
+     */
+    private static Aggregate parallelAggregate(TransactionId t, DbIterator node,
+            int afield, int gfield, Aggregator.Op op) {
+        DbIterator[] parts = partition(t, node);
+        if (parts == null)
+            return new Aggregate(node, afield, gfield, op);
+        Aggregator.Op mergeOp;
+        switch (op) {
+        case COUNT:
+        case SUM:
+            mergeOp = Aggregator.Op.SUM;
+            break;
+        case MIN:
+        case MAX:
+            mergeOp = op;
+            break;
+        default:
+            mergeOp = null;
+        }
+        if (mergeOp == null || node.getTupleDesc().getFieldType(afield) != Type.INT_TYPE)
+            return new Aggregate(new Gather(parts), afield, gfield, op);
+
+        DbIterator[] partials = new DbIterator[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            partials[i] = new Aggregate(parts[i], afield, gfield, op);
+        Aggregate merge;
+        if (gfield == Aggregator.NO_GROUPING)
+            merge = new Aggregate(new Gather(partials), 0, Aggregator.NO_GROUPING, mergeOp);
+        else
+            merge = new Aggregate(new Gather(partials), 1, 0, mergeOp);
+        merge.setAggregateName(((Aggregate) partials[0]).aggregateFieldName());
+        return merge;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -383,6 +515,8 @@ public class LogicalPlan {
             
             DbIterator j;
             j = jo.instantiateJoin(lj,plan1,plan2);
+            if (!isSubqueryJoin)
+                j = parallelJoin(t, j, plan1, plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -462,7 +596,7 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
+                aggNode = parallelAggregate(t, node,
                                         td.fieldNameToIndex(aggField),
                                         groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
                                 getAggOp(aggOp));
@@ -472,6 +606,8 @@ public class LogicalPlan {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
+        } else {
+            node = gather(t, node);
         }
 
         if (hasOrderBy) {
@@ -0,0 +1,35 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * True LRU replacement: resident pages are kept in recency order, a hit moves
+ * the page to the front and the victim is taken from the back.
+ */
+public class LruReplacementPolicy implements ReplacementPolicy {
+
+    private final PageIdList pages = new PageIdList();
+
+    public void pageLoaded(PageId pid) {
+        pages.addFirst(pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+        pages.addFirst(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        return pages.lastMatching(evictable);
+    }
+
+    public List<PageId> nextVictims(int n) {
+        List<PageId> victims = new ArrayList<PageId>(n);
+        pages.addOldest(n, victims);
+        return victims;
+    }
+}
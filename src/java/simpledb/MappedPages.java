@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * MappedPages serves the pages of a file from read-only memory-mapped
+ * regions, so that reading a page copies nothing out of the kernel's page
+ * cache. The file is mapped in chunks of CHUNK_SIZE bytes as it is read.
+ * Each chunk maps a page's worth of bytes past its end as well, so that a
+ * page that starts in a chunk is always contained in it, even when pages
+ * do not start at multiples of the chunk size. A chunk mapped before the
+ * file grew past it is mapped again the first time a new page is read
+ * from it.
+ * <p>
+ * Writes go through the file channel as usual; the mapping shares the
+ * page cache, so it sees them.
+ *
+ * @see HeapFile#setMemoryMapped
+ * @see BTreeFile#setMemoryMapped
+ */
+class MappedPages {
+
+    static final int CHUNK_SIZE = 1 << 26;
+
+    private final FileChannel channel;
+    private final int overlap;
+    // replaced, never modified, when a chunk is mapped
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    /**
+     * @param channel the file to map; it must stay open while pages are read
+     * @param maxPageSize the size of the largest page read from the file
+     */
+    MappedPages(FileChannel channel, int maxPageSize) {
+        this.channel = channel;
+        this.overlap = maxPageSize;
+    }
+
+    /**
+     * @return a read-only buffer over the length bytes of the file at pos,
+     *         or null if the file ends before them
+     */
+    ByteBuffer slice(long pos, int length) throws IOException {
+        int i = (int) (pos / CHUNK_SIZE);
+        int off = (int) (pos % CHUNK_SIZE);
+        MappedByteBuffer[] c = chunks;
+        MappedByteBuffer chunk = i < c.length ? c[i] : null;
+        if (chunk == null || chunk.capacity() < off + length) {
+            chunk = map(i, off + length);
+            if (chunk == null)
+                return null;
+        }
+        ByteBuffer b = chunk.duplicate();
+        b.limit(off + length);
+        b.position(off);
+        return b.slice();
+    }
+
+    // map chunk i, if the file is long enough for extent bytes of it
+    private synchronized MappedByteBuffer map(int i, int extent) throws IOException {
+        MappedByteBuffer[] c = chunks;
+        if (i < c.length && c[i] != null && c[i].capacity() >= extent)
+            return c[i];
+        long start = (long) i * CHUNK_SIZE;
+        long size = Math.min(CHUNK_SIZE + overlap, channel.size() - start);
+        if (size < extent)
+            return null;
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        c = Arrays.copyOf(c, Math.max(c.length, i + 1));
+        c[i] = chunk;
+        chunks = c;
+        return chunk;
+    }
+}
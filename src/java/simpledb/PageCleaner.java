@@ -0,0 +1,59 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCleaner is a daemon thread that trickles dirty pages out of a
+ * BufferPool: every interval it writes a few of the pages whose logged
+ * changes are not on disk yet, oldest log record first. This moves the
+ * point recovery starts at forward between fuzzy checkpoints, and leaves
+ * clean pages for eviction to drop.
+ *
+ * @see BufferPool#startPageCleaner
+ */
+class PageCleaner extends Thread {
+
+    private final BufferPool pool;
+    private final long intervalMillis;
+    private final int pagesPerRound;
+    private final Object sleep = new Object();
+    private boolean running = true; // protected by sleep
+
+    PageCleaner(BufferPool pool, long intervalMillis, int pagesPerRound) {
+        super("page cleaner");
+        setDaemon(true);
+        this.pool = pool;
+        this.intervalMillis = intervalMillis;
+        this.pagesPerRound = pagesPerRound;
+    }
+
+    public void run() {
+        while (true) {
+            // not interrupt(): an interrupt closes a FileChannel in use
+            synchronized (sleep) {
+                try {
+                    if (running)
+                        sleep.wait(intervalMillis);
+                } catch (InterruptedException e) {
+                    // stop
+                    running = false;
+                }
+                if (!running)
+                    return;
+            }
+            try {
+                pool.cleanPages(pagesPerRound);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Stop the cleaner; a round in progress is finished first. */
+    void shutdown() {
+        synchronized (sleep) {
+            running = false;
+            sleep.notifyAll();
+        }
+    }
+}
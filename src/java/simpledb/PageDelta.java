@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The byte ranges of a page that an update changed, with their contents
+ * before and after the update. Inserting or deleting a tuple only changes
+ * a header bit and a tuple slot, so a delta is a small fraction of the
+ * before and after images of the whole page.
+ * <p>
+ * A delta is logged in place of the images for heap pages and B+ tree leaf
+ * pages. Redo copies the after bytes of every range into a page, and undo
+ * copies the before bytes; either way, bytes outside the ranges are left
+ * alone.
+ *
+ * @see LogFile
+ */
+class PageDelta {
+
+    // equal bytes between two changed ranges cost less to log than the
+    // header of a second range
+    private static final int MERGE_GAP = 4;
+
+    final PageId pid;
+    final byte tag;
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(PageId pid, byte tag, int[] offsets, byte[][] before, byte[][] after) {
+        this.pid = pid;
+        this.tag = tag;
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /** @return true if updates of pages with this tag are logged as deltas */
+    static boolean supports(byte tag) {
+        return tag == PageImage.HEAP_PAGE || tag == PageImage.BTREE_LEAF_PAGE;
+    }
+
+    /** @return the delta that turns image b into image a */
+    static PageDelta diff(PageImage b, PageImage a) {
+        byte[] x = b.data;
+        byte[] y = a.data;
+        ArrayList<int[]> ranges = new ArrayList<int[]>();
+        int i = 0;
+        while (i < y.length) {
+            if (x[i] == y[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            for (int j = end; j < y.length && j - end <= MERGE_GAP; j++) {
+                if (x[j] != y[j])
+                    end = j + 1;
+            }
+            ranges.add(new int[] { start, end });
+            i = end;
+        }
+
+        int[] offsets = new int[ranges.size()];
+        byte[][] before = new byte[ranges.size()][];
+        byte[][] after = new byte[ranges.size()][];
+        for (int r = 0; r < offsets.length; r++) {
+            int start = ranges.get(r)[0];
+            int end = ranges.get(r)[1];
+            offsets[r] = start;
+            before[r] = Arrays.copyOfRange(x, start, end);
+            after[r] = Arrays.copyOfRange(y, start, end);
+        }
+        return new PageDelta(a.pid, a.tag, offsets, before, after);
+    }
+
+    /** Copy the after bytes of every range into data. */
+    void redo(byte[] data) {
+        for (int r = 0; r < offsets.length; r++)
+            System.arraycopy(after[r], 0, data, offsets[r], after[r].length);
+    }
+
+    /** Copy the before bytes of every range into data. */
+    void undo(byte[] data) {
+        for (int r = 0; r < offsets.length; r++)
+            System.arraycopy(before[r], 0, data, offsets[r], before[r].length);
+    }
+
+    /**
+     * Write this delta: the page tag and id, the number of ranges, and for
+     * each range its offset, length, before bytes and after bytes.
+     */
+    void write(LogWriter out) throws IOException {
+        out.writeByte(tag);
+        PageImage.writeId(out, pid);
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(after[r].length);
+            out.write(before[r]);
+            out.write(after[r]);
+        }
+    }
+
+    /** Read a delta written by write(). */
+    static PageDelta read(RandomAccessFile in) throws IOException {
+        byte tag = in.readByte();
+        PageId pid = PageImage.readId(in, tag, null);
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int length = in.readInt();
+            before[r] = new byte[length];
+            after[r] = new byte[length];
+            in.readFully(before[r]);
+            in.readFully(after[r]);
+        }
+        return new PageDelta(pid, tag, offsets, before, after);
+    }
+}
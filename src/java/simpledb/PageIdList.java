@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An ordered list of page ids with constant-time insertion, removal and
+ * move-to-front. The list is doubly linked through its nodes and indexed by a
+ * hash map, so no operation needs to walk the list to find a page.
+ * Used by the list-based replacement policies.
+ *
+ * @see LruReplacementPolicy
+ * @see TwoQueueReplacementPolicy
+ */
+class PageIdList {
+
+    private static final class Node {
+        final PageId pid;
+        Node prev;
+        Node next;
+
+        Node(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final HashMap<PageId, Node> index = new HashMap<PageId, Node>();
+    // sentinel: head.next is the most recent page, head.prev the oldest
+    private final Node head = new Node(null);
+
+    PageIdList() {
+        head.prev = head;
+        head.next = head;
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    boolean contains(PageId pid) {
+        return index.containsKey(pid);
+    }
+
+    /** Add pid at the front of the list, or move it there if present. */
+    void addFirst(PageId pid) {
+        Node n = index.get(pid);
+        if (n == null) {
+            n = new Node(pid);
+            index.put(pid, n);
+        } else {
+            unlink(n);
+        }
+        n.next = head.next;
+        n.prev = head;
+        head.next.prev = n;
+        head.next = n;
+    }
+
+    /** @return true if pid was in the list */
+    boolean remove(PageId pid) {
+        Node n = index.remove(pid);
+        if (n == null)
+            return false;
+        unlink(n);
+        return true;
+    }
+
+    /** Remove and return the oldest page, or null if the list is empty. */
+    PageId removeLast() {
+        PageId pid = head.prev.pid;
+        if (pid != null)
+            remove(pid);
+        return pid;
+    }
+
+    /**
+     * @return the oldest page accepted by evictable, or null if there is none
+     */
+    PageId lastMatching(ReplacementPolicy.Evictable evictable) {
+        for (Node n = head.prev; n != head; n = n.prev) {
+            if (evictable.test(n.pid))
+                return n.pid;
+        }
+        return null;
+    }
+
+    /** Append up to n of the oldest pages to out, oldest first. */
+    void addOldest(int n, List<PageId> out) {
+        for (Node p = head.prev; p != head && n > 0; p = p.prev, n--)
+            out.add(p.pid);
+    }
+
+    private static void unlink(Node n) {
+        n.prev.next = n.next;
+        n.next.prev = n.prev;
+        n.prev = null;
+        n.next = null;
+    }
+}
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * The contents of a page as the log stores them: the page id, a tag naming
+ * the page class, and the serialized page. Rollback and recovery work on
+ * images and only turn them back into pages to write them to their files.
+ *
+ * @see LogFile
+ */
+class PageImage {
+
+    // page type tags
+    static final byte OTHER_PAGE = 0;
+    static final byte HEAP_PAGE = 1;
+    static final byte BTREE_ROOT_PTR_PAGE = 2;
+    static final byte BTREE_INTERNAL_PAGE = 3;
+    static final byte BTREE_LEAF_PAGE = 4;
+    static final byte BTREE_HEADER_PAGE = 5;
+
+    final PageId pid;
+    final byte tag;
+    final byte[] data;
+    private final String pageClass; // for OTHER_PAGE only
+
+    PageImage(PageId pid, byte tag, byte[] data, String pageClass) {
+        this.pid = pid;
+        this.tag = tag;
+        this.data = data;
+        this.pageClass = pageClass;
+    }
+
+    /** @return the image of the current contents of p */
+    static PageImage of(Page p) {
+        byte tag = tagOf(p);
+        return new PageImage(p.getId(), tag, p.getPageData(),
+                tag == OTHER_PAGE ? p.getClass().getName() : null);
+    }
+
+    static byte tagOf(Page p) {
+        Class<?> c = p.getClass();
+        if (c == HeapPage.class)
+            return HEAP_PAGE;
+        if (c == BTreeLeafPage.class)
+            return BTREE_LEAF_PAGE;
+        if (c == BTreeInternalPage.class)
+            return BTREE_INTERNAL_PAGE;
+        if (c == BTreeRootPtrPage.class)
+            return BTREE_ROOT_PTR_PAGE;
+        if (c == BTreeHeaderPage.class)
+            return BTREE_HEADER_PAGE;
+        return OTHER_PAGE;
+    }
+
+    /**
+     * Read the image of page pid, which has the given tag, from its file. A
+     * page past the end of the file has not been written yet, and reads as
+     * zeros like a new empty page.
+     */
+    static PageImage load(PageId pid, byte tag) {
+        try {
+            return of(Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid));
+        } catch (IllegalArgumentException e) {
+            return new PageImage(pid, tag, new byte[BufferPool.getPageSize()], null);
+        }
+    }
+
+    /** @return a copy of this image that can be modified */
+    PageImage copy() {
+        return new PageImage(pid, tag, data.clone(), pageClass);
+    }
+
+    /** @return the page this is an image of */
+    Page toPage() throws IOException {
+        switch (tag) {
+        case HEAP_PAGE:
+            return new HeapPage((HeapPageId) pid, data);
+        case BTREE_ROOT_PTR_PAGE:
+            return new BTreeRootPtrPage((BTreePageId) pid, data);
+        case BTREE_HEADER_PAGE:
+            return new BTreeHeaderPage((BTreePageId) pid, data);
+        case BTREE_INTERNAL_PAGE:
+            return new BTreeInternalPage((BTreePageId) pid, data, keyField(pid));
+        case BTREE_LEAF_PAGE:
+            return new BTreeLeafPage((BTreePageId) pid, data, keyField(pid));
+        }
+        try {
+            Constructor<?>[] pageConsts = Class.forName(pageClass).getDeclaredConstructors();
+            return (Page) pageConsts[0].newInstance(pid, data);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } catch (InstantiationException e) {
+            throw new IOException(e);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    /**
+     * Write this image: the tag, the page and id class names for
+     * OTHER_PAGE, the id and the page data.
+     */
+    void write(LogWriter out) throws IOException {
+        out.writeByte(tag);
+        if (tag == OTHER_PAGE) {
+            out.writeUTF(pageClass);
+            out.writeUTF(pid.getClass().getName());
+        }
+        writeId(out, pid);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /** Read an image written by write(). */
+    static PageImage read(RandomAccessFile in) throws IOException {
+        byte tag = in.readByte();
+        String pageClass = null;
+        String idClass = null;
+        if (tag == OTHER_PAGE) {
+            pageClass = in.readUTF();
+            idClass = in.readUTF();
+        }
+        PageId pid = readId(in, tag, idClass);
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new PageImage(pid, tag, data, pageClass);
+    }
+
+    /** @return the tag of the pages that pid can identify */
+    static byte tagOf(PageId pid) {
+        if (pid instanceof HeapPageId)
+            return HEAP_PAGE;
+        if (pid instanceof BTreePageId) {
+            switch (((BTreePageId) pid).pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return BTREE_ROOT_PTR_PAGE;
+            case BTreePageId.INTERNAL:
+                return BTREE_INTERNAL_PAGE;
+            case BTreePageId.LEAF:
+                return BTREE_LEAF_PAGE;
+            case BTreePageId.HEADER:
+                return BTREE_HEADER_PAGE;
+            }
+        }
+        return OTHER_PAGE;
+    }
+
+    /** Write pid on its own: its tag, its class name for OTHER_PAGE, and its id. */
+    static void writeTaggedId(LogWriter out, PageId pid) throws IOException {
+        byte tag = tagOf(pid);
+        out.writeByte(tag);
+        if (tag == OTHER_PAGE)
+            out.writeUTF(pid.getClass().getName());
+        writeId(out, pid);
+    }
+
+    /** Read a page id written by writeTaggedId. */
+    static PageId readTaggedId(RandomAccessFile in) throws IOException {
+        byte tag = in.readByte();
+        return readId(in, tag, tag == OTHER_PAGE ? in.readUTF() : null);
+    }
+
+    static void writeId(LogWriter out, PageId pid) throws IOException {
+        int[] pageInfo = pid.serialize();
+        out.writeInt(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++)
+            out.writeInt(pageInfo[i]);
+    }
+
+    /** Read a page id written by writeId; idClass is only needed for OTHER_PAGE. */
+    static PageId readId(RandomAccessFile in, byte tag, String idClass) throws IOException {
+        int[] pageInfo = new int[in.readInt()];
+        for (int i = 0; i < pageInfo.length; i++)
+            pageInfo[i] = in.readInt();
+        if (tag == HEAP_PAGE)
+            return new HeapPageId(pageInfo[0], pageInfo[1]);
+        if (tag != OTHER_PAGE)
+            return new BTreePageId(pageInfo[0], pageInfo[1], pageInfo[2]);
+        try {
+            Constructor<?>[] idConsts = Class.forName(idClass).getDeclaredConstructors();
+            Object[] idArgs = new Object[pageInfo.length];
+            for (int i = 0; i < pageInfo.length; i++)
+                idArgs[i] = pageInfo[i];
+            return (PageId) idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } catch (InstantiationException e) {
+            throw new IOException(e);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of page numbers of a file, from start (inclusive) to end
+ * (exclusive). split() divides a file into disjoint ranges of about the same
+ * size, so that several threads can each read or update their own pages
+ * without coordinating with the others.
+ *
+ * @see HeapFile#iterator(TransactionId, PageRange)
+ */
+public class PageRange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int start;
+    private final int end;
+
+    /**
+     * Constructor.
+     *
+     * @param start the first page of the range
+     * @param end the page after the last page of the range
+     */
+    public PageRange(int start, int end) {
+        if (start < 0 || end < start)
+            throw new IllegalArgumentException("bad page range " + start + ".." + end);
+        this.start = start;
+        this.end = end;
+    }
+
+    /** @return the first page of this range */
+    public int getStart() {
+        return start;
+    }
+
+    /** @return the page after the last page of this range */
+    public int getEnd() {
+        return end;
+    }
+
+    /** @return the number of pages in this range */
+    public int numPages() {
+        return end - start;
+    }
+
+    /** @return true if page pgNo is in this range */
+    public boolean contains(int pgNo) {
+        return pgNo >= start && pgNo < end;
+    }
+
+    /**
+     * Split pages 0 to numPages into at most n ranges, in order. The sizes
+     * of the ranges differ by at most one page.
+     *
+     * @return at least one range; a single empty range if numPages is 0
+     */
+    public static List<PageRange> split(int numPages, int n) {
+        return split(numPages, n, 1);
+    }
+
+    /**
+     * Split pages 0 to numPages into at most n ranges of at least minPages
+     * pages each, in order. The sizes of the ranges differ by at most one
+     * page. Fewer than n ranges are returned if there are not enough pages,
+     * but always at least one.
+     */
+    public static List<PageRange> split(int numPages, int n, int minPages) {
+        if (numPages < 0 || n < 1 || minPages < 1)
+            throw new IllegalArgumentException("cannot split " + numPages + " pages " + n + " ways");
+        n = Math.max(1, Math.min(n, numPages / minPages));
+        List<PageRange> ranges = new ArrayList<PageRange>(n);
+        int size = numPages / n;
+        int extra = numPages % n; // the first extra ranges get one more page
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            int end = start + size + (i < extra ? 1 : 0);
+            ranges.add(new PageRange(start, end));
+            start = end;
+        }
+        return ranges;
+    }
+
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof PageRange))
+            return false;
+        PageRange other = (PageRange) o;
+        return start == other.start && end == other.end;
+    }
+
+    public int hashCode() {
+        return 31 * start + end;
+    }
+
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+}
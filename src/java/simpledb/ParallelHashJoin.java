@@ -0,0 +1,362 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * An equi-join that probes in parallel. Like HashEquiJoin, it builds a hash
+ * table from the left child; the right child is given as a set of
+ * partitions, e.g. filters over SeqScans of disjoint page ranges of a table,
+ * and each partition probes the shared hash table on its own worker thread.
+ * The hash table is only read while the workers run.
+ * <p>
+ * If the left child does not fit into one hash table, it is hashed into
+ * HashEquiJoin.FANOUT partitions on disk, and the workers hash their
+ * partitions of the right child the same way, so that every partition is
+ * read once. Each left partition is then joined with the matching right
+ * partitions, probing in parallel again; one that is still too large is
+ * joined a hash table at a time.
+ * <p>
+ * The output is the same as that of HashEquiJoin over the left child and
+ * the union of the partitions, in no particular order.
+ */
+public class ParallelHashJoin extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate joinPred;
+    private final int mapSize;
+    private DbIterator lIter;
+    private DbIterator[] rParts;
+    private TupleDesc td;
+
+    private transient JoinHashTable map = null;
+    private transient Probe[] probes;
+    private transient boolean probing = false;
+
+    // the left tuples the hash table is built from: the left child, or the
+    // left partition being joined
+    private transient DbIterator build = null;
+    // once the left child is spilled, its partitions, the partitions of
+    // each worker's part of the right child, and the one being joined
+    private transient SpillFile[] lSpill = null;
+    private transient SpillFile[][] rSpill = null;
+    private transient int partition;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left relation, which is hashed
+     * @param parts2
+     *            The partitions of the right relation; at least one, all
+     *            with the same TupleDesc
+     */
+    public ParallelHashJoin(JoinPredicate p, DbIterator child1, DbIterator[] parts2) {
+        this(p, child1, parts2, HashEquiJoin.MAP_SIZE);
+    }
+
+    /**
+     * Constructor for a join whose hash table holds at most mapSize left
+     * tuples rather than HashEquiJoin.MAP_SIZE.
+     */
+    ParallelHashJoin(JoinPredicate p, DbIterator child1, DbIterator[] parts2, int mapSize) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("ParallelHashJoin only supports equality");
+        if (parts2.length == 0)
+            throw new IllegalArgumentException("nothing to probe with");
+        this.mapSize = mapSize;
+        joinPred = p;
+        lIter = child1;
+        rParts = parts2;
+        td = TupleDesc.merge(lIter.getTupleDesc(), rParts[0].getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public String getJoinField1Name() {
+        return lIter.getTupleDesc().getFieldName(joinPred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return rParts[0].getTupleDesc().getFieldName(joinPred.getField2());
+    }
+
+    public String getName() {
+        return "ParallelHashJoin(" + rParts.length + ")";
+    }
+
+    /** Load the next mapSize tuples of build into the map. */
+    private boolean loadMap() throws DbException, TransactionAbortedException {
+        int cnt = 0;
+        map.clear();
+        while (cnt < mapSize && build.hasNext()) {
+            map.add(build.next());
+            cnt++;
+        }
+        return cnt > 0;
+    }
+
+    /**
+     * Load the first hash table and start probing it. If the left child
+     * does not fit, both sides are partitioned first, and the first pair of
+     * partitions is probed instead.
+     */
+    private void startProbing() throws DbException, TransactionAbortedException {
+        if (probes == null) {
+            probes = new Probe[rParts.length];
+            for (int i = 0; i < rParts.length; i++)
+                probes[i] = new Probe(rParts[i]);
+        } else {
+            for (int i = 0; i < rParts.length; i++)
+                probes[i].setChildren(new DbIterator[] { rParts[i] });
+        }
+        if (map == null)
+            map = new JoinHashTable(lIter.getTupleDesc(), joinPred.getField1());
+        build = lIter;
+        probing = loadMap();
+        if (!probing)
+            return;
+        if (!lIter.hasNext()) {
+            start(probes);
+            return;
+        }
+        spill();
+        probing = nextPartition();
+    }
+
+    /**
+     * Start probing the next hash table, once the workers are done with the
+     * current one.
+     *
+     * @return false if the join is done
+     */
+    private boolean nextMap() throws DbException, TransactionAbortedException {
+        if (loadMap()) {
+            // a left partition too large for one table: probe it again
+            start(probes);
+            return true;
+        }
+        return lSpill != null && nextPartition();
+    }
+
+    /** Start joining the next partition that has tuples on both sides. */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (build != lIter)
+            build.close();
+        while (++partition < HashEquiJoin.FANOUT) {
+            boolean probed = false;
+            for (SpillFile[] files : rSpill)
+                probed |= files[partition].size() > 0;
+            if (lSpill[partition].size() == 0 || !probed)
+                continue;
+            build = lSpill[partition].iterator();
+            build.open();
+            for (int i = 0; i < probes.length; i++)
+                probes[i].setChildren(new DbIterator[] { rSpill[i][partition].iterator() });
+            loadMap();
+            start(probes);
+            return true;
+        }
+        build = lIter;
+        return false;
+    }
+
+    /**
+     * Hash the tuples in the map and the rest of the left child into
+     * partitions on disk, and have a worker for each part of the right
+     * child do the same with its part.
+     */
+    private void spill() throws DbException, TransactionAbortedException {
+        int field1 = joinPred.getField1();
+        lSpill = new SpillFile[HashEquiJoin.FANOUT];
+        for (int i = 0; i < lSpill.length; i++)
+            lSpill[i] = new SpillFile(lIter.getTupleDesc());
+        for (ArrayList<Tuple> list : map.lists()) {
+            for (Tuple t : list)
+                lSpill[HashEquiJoin.partitionOf(t.getField(field1), 0)].add(t);
+        }
+        map.clear();
+        while (lIter.hasNext()) {
+            Tuple t = lIter.next();
+            lSpill[HashEquiJoin.partitionOf(t.getField(field1), 0)].add(t);
+        }
+        for (SpillFile f : lSpill)
+            f.finish();
+
+        rSpill = new SpillFile[rParts.length][];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < rParts.length; i++) {
+            final DbIterator part = rParts[i];
+            final SpillFile[] files = new SpillFile[HashEquiJoin.FANOUT];
+            for (int j = 0; j < files.length; j++)
+                files[j] = new SpillFile(part.getTupleDesc());
+            rSpill[i] = files;
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    int field2 = joinPred.getField2();
+                    part.open();
+                    try {
+                        while (part.hasNext()) {
+                            Tuple t = part.next();
+                            files[HashEquiJoin.partitionOf(t.getField(field2), 0)].add(t);
+                        }
+                    } finally {
+                        part.close();
+                    }
+                    for (SpillFile f : files)
+                        f.finish();
+                    return null;
+                }
+            });
+        }
+        partition = -1;
+        invokeAll(tasks);
+    }
+
+    private void deleteSpill() {
+        if (build != null && build != lIter)
+            build.close();
+        build = null;
+        if (lSpill != null) {
+            for (SpillFile f : lSpill)
+                f.delete();
+            for (SpillFile[] files : rSpill) {
+                for (SpillFile f : files)
+                    f.delete();
+            }
+        }
+        lSpill = null;
+        rSpill = null;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        lIter.open();
+        startProbing();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+        deleteSpill();
+        lIter.close();
+        if (map != null)
+            map.clear();
+        probing = false;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        deleteSpill();
+        lIter.rewind();
+        startProbing();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Once every partition has probed the current hash table,
+     * the next one is loaded and probed.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (probing) {
+            Tuple t = nextFromWorkers();
+            if (t != null)
+                return t;
+            probing = nextMap();
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        DbIterator[] children = new DbIterator[rParts.length + 1];
+        children[0] = lIter;
+        System.arraycopy(rParts, 0, children, 1, rParts.length);
+        return children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        lIter = children[0];
+        rParts = Arrays.copyOfRange(children, 1, children.length);
+        probes = null;
+        map = null;
+    }
+
+    /** Joins one partition of the right child with the hash table. */
+    private class Probe extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private DbIterator rIter;
+        private transient Tuple t2 = null;
+        private transient Iterator<Tuple> listIt = null;
+
+        Probe(DbIterator rIter) {
+            this.rIter = rIter;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            rIter.open();
+        }
+
+        public void close() {
+            super.close();
+            rIter.close();
+            t2 = null;
+            listIt = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            rIter.rewind();
+            listIt = null;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (listIt == null || !listIt.hasNext()) {
+                if (!rIter.hasNext())
+                    return null;
+                t2 = rIter.next();
+                ArrayList<Tuple> l = map.get(t2.getField(joinPred.getField2()));
+                listIt = l == null ? null : l.iterator();
+            }
+            Tuple t1 = listIt.next();
+            int td1n = t1.getTupleDesc().numFields();
+            int td2n = t2.getTupleDesc().numFields();
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < td1n; i++)
+                t.setField(i, t1.getField(i));
+            for (int i = 0; i < td2n; i++)
+                t.setField(td1n + i, t2.getField(i));
+            return t;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { rIter };
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            rIter = children[0];
+            t2 = null;
+            listIt = null;
+        }
+    }
+}
@@ -123,6 +123,72 @@ public class Predicate implements Serializable {
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
      */
+    /**
+     * Narrows the selection of batch b to the rows that pass this predicate,
+     * as filter(Tuple) would decide for each of them. Int columns are
+     * compared in a loop over the column array, without creating Fields.
+     *
+     * @return the number of rows still selected
+     */
+    public int filter(TupleBatch b) {
+        int[] sel = b.selection();
+        int n = 0;
+        if (!(operand instanceof IntField)
+                || b.getTupleDesc().getFieldType(field) != Type.INT_TYPE) {
+            for (int k = 0; k < b.size(); k++) {
+                if (b.getField(field, sel[k]).compare(op, operand))
+                    sel[n++] = sel[k];
+            }
+            b.select(n);
+            return n;
+        }
+
+        int[] col = b.ints(field);
+        int v = ((IntField) operand).getValue();
+        int size = b.size();
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int k = 0; k < size; k++) {
+                if (col[sel[k]] == v)
+                    sel[n++] = sel[k];
+            }
+            break;
+        case NOT_EQUALS:
+            for (int k = 0; k < size; k++) {
+                if (col[sel[k]] != v)
+                    sel[n++] = sel[k];
+            }
+            break;
+        case GREATER_THAN:
+            for (int k = 0; k < size; k++) {
+                if (col[sel[k]] > v)
+                    sel[n++] = sel[k];
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int k = 0; k < size; k++) {
+                if (col[sel[k]] >= v)
+                    sel[n++] = sel[k];
+            }
+            break;
+        case LESS_THAN:
+            for (int k = 0; k < size; k++) {
+                if (col[sel[k]] < v)
+                    sel[n++] = sel[k];
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int k = 0; k < size; k++) {
+                if (col[sel[k]] <= v)
+                    sel[n++] = sel[k];
+            }
+            break;
+        }
+        b.select(n);
+        return n;
+    }
+
     public String toString() {
         // some code goes here
         return "f = " + field + " op = " + op + " operand = "  + operand;
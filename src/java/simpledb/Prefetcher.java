@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * Prefetcher is a daemon thread that reads pages of heap files into a
+ * BufferPool ahead of sequential scans, so that a scan works on one page
+ * while the next ones are read.
+ * <p>
+ * The pool reports every access of a heap page. An access of the page after
+ * the one last accessed in a table starts or continues a sequential stream;
+ * once a stream has seen two pages in a row, the window of pages after it is
+ * requested, and kept requested as the stream moves on. The window starts at
+ * MIN_WINDOW pages and doubles, up to a quarter of the pool, whenever the
+ * scan needs a page that has not been read yet; it halves whenever a page
+ * read ahead is evicted before it was used.
+ *
+ * @see BufferPool#startPrefetcher
+ */
+class Prefetcher extends Thread {
+
+    static final int MIN_WINDOW = 4;
+
+    /** The number of sequential streams tracked at a time */
+    private static final int STREAMS = 8;
+
+    private final BufferPool pool;
+    private final int maxWindow;
+
+    // protected by this
+    private final Stream[] streams = new Stream[STREAMS];
+    private final ArrayDeque<HeapPageId> requests = new ArrayDeque<HeapPageId>();
+    private long clock = 0;
+    private boolean running = true;
+
+    /** One sequential scan of a table */
+    private static class Stream {
+        int table;
+        int next;      // the page the scan is expected to access next
+        int ahead;     // the first page after next not requested yet
+        int window = MIN_WINDOW;
+        boolean started = false;
+        long lastUse;
+    }
+
+    Prefetcher(BufferPool pool, int poolPages) {
+        super("prefetcher");
+        setDaemon(true);
+        this.pool = pool;
+        this.maxWindow = Math.max(MIN_WINDOW, poolPages / 4);
+    }
+
+    /**
+     * Called by the pool on every access of a heap page.
+     *
+     * @param hit true if the page was resident
+     * @return true if the access continues a sequential stream that pages
+     *         were being read ahead for
+     */
+    synchronized boolean accessed(HeapPageId pid, boolean hit) {
+        int table = pid.getTableId();
+        int pg = pid.pageNumber();
+        Stream s = null;
+        Stream oldest = null;
+        for (int i = 0; i < streams.length; i++) {
+            Stream c = streams[i];
+            if (c == null) {
+                c = streams[i] = new Stream();
+                c.table = table;
+                c.next = -1;
+            }
+            if (c.table == table && c.next == pg) {
+                s = c;
+                break;
+            }
+            if (oldest == null || c.lastUse < oldest.lastUse)
+                oldest = c;
+        }
+        if (s == null) {
+            // not sequential: start a new stream in place of the oldest
+            oldest.table = table;
+            oldest.next = pg + 1;
+            oldest.ahead = pg + 1;
+            oldest.window = MIN_WINDOW;
+            oldest.started = false;
+            oldest.lastUse = ++clock;
+            return false;
+        }
+
+        boolean started = s.started;
+        s.lastUse = ++clock;
+        s.next = pg + 1;
+        if (started && !hit)
+            s.window = Math.min(2 * s.window, maxWindow); // the scan caught up
+        s.started = true;
+        int end = pg + 1 + s.window;
+        boolean added = false;
+        for (int p = Math.max(s.ahead, pg + 1); p < end; p++) {
+            requests.add(new HeapPageId(table, p));
+            added = true;
+        }
+        s.ahead = Math.max(s.ahead, end);
+        // drop the oldest requests if scans run far ahead of the disk
+        while (requests.size() > STREAMS * maxWindow)
+            requests.poll();
+        if (added)
+            notifyAll();
+        return started;
+    }
+
+    /** Called by the pool when a page read ahead is evicted unused. */
+    synchronized void wasted(PageId pid) {
+        for (Stream s : streams) {
+            if (s != null && s.table == pid.getTableId())
+                s.window = Math.max(MIN_WINDOW, s.window / 2);
+        }
+    }
+
+    public void run() {
+        while (true) {
+            HeapPageId pid;
+            // not interrupt(): an interrupt closes a FileChannel in use
+            synchronized (this) {
+                while (running && requests.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                if (!running)
+                    return;
+                pid = requests.poll();
+            }
+            pool.prefetch(pid);
+        }
+    }
+
+    /** Stop the prefetcher; a read in progress is finished first. */
+    synchronized void shutdown() {
+        running = false;
+        requests.clear();
+        notifyAll();
+    }
+}
@@ -5,12 +5,14 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient BatchIterator batchChild; // child read a batch at a time
+    private transient TupleBatch batch;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -80,6 +82,22 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child with only the projected columns,
+     * and the same rows selected.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batchChild == null)
+            batchChild = BatchAdapter.of(child);
+        TupleBatch b = batchChild.nextBatch();
+        if (b == null)
+            return null;
+        if (batch == null || batch.capacity() < b.numRows())
+            batch = new TupleBatch(td, b.capacity());
+        batch.project(b, outFieldIds);
+        return batch;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -90,6 +108,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.batchChild = null;
 	}
     }
     
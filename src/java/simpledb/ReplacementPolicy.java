@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool reports every page that becomes
+ * resident, every hit on a resident page and every page that leaves the pool;
+ * the policy answers with a victim when asked.
+ * <p>
+ * All notifications and {@link #chooseVictim} are expected to run in O(1)
+ * (amortized over skipped candidates), so that the cost of a buffer hit does
+ * not depend on the size of the pool.
+ * <p>
+ * Implementations are not thread-safe; the BufferPool serializes calls.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy.Kind)
+ */
+public interface ReplacementPolicy {
+
+    /** The replacement policies that can be selected for a BufferPool. */
+    public enum Kind {
+        /** Evicts the least recently used page. */
+        LRU() {
+            @Override
+            public ReplacementPolicy create(int capacity) {
+                return new LruReplacementPolicy();
+            }
+        },
+        /** Second-chance approximation of LRU over a fixed ring of frames. */
+        CLOCK() {
+            @Override
+            public ReplacementPolicy create(int capacity) {
+                return new ClockReplacementPolicy(capacity);
+            }
+        },
+        /** 2Q: pages touched once are evicted before pages touched twice. */
+        TWO_QUEUE() {
+            @Override
+            public ReplacementPolicy create(int capacity) {
+                return new TwoQueueReplacementPolicy(capacity);
+            }
+        };
+
+        /**
+         * @param capacity the number of pages in the buffer pool
+         * @return a new, empty policy of this kind
+         */
+        public abstract ReplacementPolicy create(int capacity);
+    }
+
+    /** Tells the policy which pages may currently be chosen as a victim. */
+    public interface Evictable {
+        /** @return true if the page may be evicted right now */
+        public boolean test(PageId pid);
+    }
+
+    /**
+     * Called when a page becomes resident in the buffer pool.
+     *
+     * @param pid the page that was loaded
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called on every buffer hit of a resident page.
+     *
+     * @param pid the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool, whether it was chosen by
+     * {@link #chooseVictim} or discarded explicitly.
+     *
+     * @param pid the page that was removed
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The page stays tracked until
+     * the BufferPool calls {@link #pageRemoved}.
+     *
+     * @param evictable filter for pages that must not be evicted right now
+     * @return the victim, or null if no tracked page is evictable
+     */
+    public PageId chooseVictim(Evictable evictable);
+
+    /**
+     * List the pages next in line for eviction, about in the order
+     * {@link #chooseVictim} would pick them if nothing else happened, without
+     * changing the state of the policy. Used to clean pages before they are
+     * needed.
+     *
+     * @param n the most pages to list
+     * @return up to n pages, the first victim first
+     */
+    public List<PageId> nextVictims(int n);
+}
@@ -6,19 +6,38 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Scans of heap files can also be read a batch at a time; nextBatch() reads
+ * the fields straight from the pages without creating tuples. Both read a
+ * large range of pages through one BufferRing, made when the first page is
+ * read, and the tuples are only opened once they are asked for, so a scan
+ * read a batch at a time pins no page for them. A scan of a heap file can be limited to a range of pages, so that
+ * several scans can read parts of one table in parallel.
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
+    private final int startPage;
+    private final int endPage;
 
-    private DbFileIterator itr;
+    private DbFileIterator itr; // made when opened for a heap file
+    private boolean itrOpen = false; // itr is opened on first use
     //private int curPage = 0;
     //private int numPage = 0;
     //private Iterator<Tuple> curItr = null;
-    //private boolean open = false;
+    private boolean open = false;
+
+    // position of nextBatch() in a heap file
+    private transient TupleBatch batch;
+    private transient int batchPage;
+    private transient int batchSlot;
+    // the ring the pages of a large heap file are read through, once
+    // ringMade; null if the range fits in the pool
+    private transient BufferRing ring;
+    private transient boolean ringMade = false;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -41,7 +60,36 @@ public class SeqScan implements DbIterator {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-        this.itr = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.startPage = 0;
+        this.endPage = Integer.MAX_VALUE;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            this.itr = f.iterator(tid);
+    }
+
+    /**
+     * Creates a sequential scan over a range of pages of the specified heap
+     * file.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table
+     * @param range
+     *            the pages to scan
+     * @see PageRange#split
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, PageRange range) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can be scanned by page range");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.startPage = range.getStart();
+        this.endPage = range.getEnd();
     }
 
     /**
@@ -53,6 +101,13 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableid);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -86,7 +141,11 @@ public class SeqScan implements DbIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        itr.open();
+        closeTuples();
+        releaseRing();
+        open = true;
+        batchPage = startPage;
+        batchSlot = 0;
         /*
         open = true;
         curPage = 0;
@@ -101,6 +160,40 @@ public class SeqScan implements DbIterator {
         advance();*/
     }
 
+    /** @return the tuple iterator, opened if it is not yet */
+    private DbFileIterator tuples() throws DbException, TransactionAbortedException {
+        if (!itrOpen) {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            if (f instanceof HeapFile)
+                itr = ((HeapFile) f).iterator(tid, new PageRange(startPage, endPage), ring((HeapFile) f));
+            itr.open();
+            itrOpen = true;
+        }
+        return itr;
+    }
+
+    private void closeTuples() {
+        if (itrOpen)
+            itr.close();
+        itrOpen = false;
+    }
+
+    /** @return the ring to read the pages of f through, made on first use */
+    private BufferRing ring(HeapFile f) {
+        if (!ringMade) {
+            int pages = Math.min(endPage, f.numPages()) - startPage;
+            ring = Database.getBufferPool().newScanRing(pages);
+            ringMade = true;
+        }
+        return ring;
+    }
+
+    private void releaseRing() {
+        Database.getBufferPool().releaseRing(ring);
+        ring = null;
+        ringMade = false;
+    }
+
     /*private void advance() throws DbException, TransactionAbortedException {
         while (!curItr.hasNext()) {
             curPage++;
@@ -147,7 +240,9 @@ public class SeqScan implements DbIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return itr.hasNext();
+        if (!open)
+            return false;
+        return tuples().hasNext();
         /*
         if (!open) {
             return false;
@@ -159,7 +254,9 @@ public class SeqScan implements DbIterator {
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return itr.next();
+        if (!open)
+            throw new NoSuchElementException("iterator not open.");
+        return tuples().next();
         /*
         if (!open) {
             throw new NoSuchElementException("iterator not open.");
@@ -175,7 +272,9 @@ public class SeqScan implements DbIterator {
 
     public void close() {
         // some code goes here
-        itr.close();
+        closeTuples();
+        open = false;
+        releaseRing();
         /*
         curItr = null;
         curPage = 0;
@@ -186,6 +285,37 @@ public class SeqScan implements DbIterator {
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
-        itr.rewind();
+        if (!open)
+            throw new DbException("iterator not open yet.");
+        closeTuples();
+        batchPage = startPage;
+        batchSlot = 0;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!open)
+            throw new IllegalStateException("Operator not yet open");
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile)) {
+            DbFileIterator tuples = tuples();
+            while (!batch.isFull() && tuples.hasNext())
+                batch.add(tuples.next());
+            return batch.numRows() == 0 ? null : batch;
+        }
+
+        int numPages = Math.min(endPage, ((HeapFile) f).numPages());
+        while (!batch.isFull() && batchPage < numPages) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableid, batchPage), Permissions.READ_ONLY, ring((HeapFile) f));
+            batchSlot = page.copyTo(batch, batchSlot);
+            if (batchSlot == page.getNumSlots()) {
+                batchPage++;
+                batchSlot = 0;
+            }
+        }
+        return batch.numRows() == 0 ? null : batch;
     }
 }
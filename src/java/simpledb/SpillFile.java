@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples of one TupleDesc, for operators
+ * whose state does not fit in memory. Tuples are appended, and once the file
+ * is finished they can be read back, in the order they were added, as often
+ * as needed. Nothing is written to disk until the first tuple is added.
+ *
+ * @see HashEquiJoin
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private File file = null;
+    private DataOutputStream out = null;
+    private int size = 0;
+
+    SpillFile(TupleDesc td) {
+        this.td = td;
+    }
+
+    /** @return the number of tuples added */
+    int size() {
+        return size;
+    }
+
+    void add(Tuple t) throws DbException {
+        try {
+            if (out == null) {
+                file = File.createTempFile("spill", ".tmp");
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            }
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not spill tuple: " + e);
+        }
+        size++;
+    }
+
+    /** Finish adding tuples, so that they can be read. */
+    void finish() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not spill tuple: " + e);
+        } finally {
+            out = null;
+        }
+    }
+
+    /** @return an iterator over the tuples of the finished file */
+    DbIterator iterator() {
+        return new Reader();
+    }
+
+    /** Delete the file; iterators over it must be closed first. */
+    void delete() {
+        try {
+            finish();
+        } catch (DbException e) {
+            // deleted anyway
+        }
+        if (file != null)
+            file.delete();
+        file = null;
+        size = 0;
+    }
+
+    private class Reader implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] buf = new byte[td.getSize()];
+        private DataInputStream in = null;
+        private int read = 0;
+
+        public void open() throws DbException {
+            close();
+            read = 0;
+            if (size == 0)
+                return;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("could not read spilled tuples: " + e);
+            }
+        }
+
+        public boolean hasNext() {
+            return in != null && read < size;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                // a whole tuple at a time: parsing a string field from a
+                // buffered stream could read it short
+                in.readFully(buf);
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buf));
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(dis));
+            } catch (IOException e) {
+                throw new DbException("could not read spilled tuples: " + e);
+            } catch (ParseException e) {
+                throw new DbException("could not read spilled tuples: " + e);
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // only read from
+                }
+                in = null;
+            }
+        }
+    }
+}
@@ -14,7 +14,8 @@ public class StringAggregator implements Aggregator {
     private Type gbfieldType;
     private int agfield;
     private Op op;
-    private HashMap<String, Integer> gbIdxToCount; //(gbfield_val_toString,  count)
+    private HashMap<String, GroupState> gbIdxToState; //(gbfield_val_toString,  state)
+    private IntHashMap<GroupState> intGroups; // state by int gbfield_val
 
     /**
      * Aggregate constructor
@@ -35,7 +36,12 @@ public class StringAggregator implements Aggregator {
         this.gbfieldType = gbfieldtype;
         this.agfield = afield;
         this.op = what;
-        gbIdxToCount = new HashMap<>();
+        gbIdxToState = new HashMap<>();
+        intGroups = new IntHashMap<>();
+    }
+
+    private boolean intGrouping() {
+        return gbfield != Aggregator.NO_GROUPING && gbfieldType == Type.INT_TYPE;
     }
 
     /**
@@ -44,20 +50,39 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+        if (intGrouping()) {
+            GroupState.of(intGroups, ((IntField)tup.getField(gbfield)).getValue()).count++;
+            return;
+        }
         // key
         String key = "NoGrouping";
-        if (!(gbfield == Aggregator.NO_GROUPING) && gbfieldType == Type.INT_TYPE) {
-            key = Integer.toString(((IntField)tup.getField(gbfield)).getValue());
-        } else if (!(gbfield == Aggregator.NO_GROUPING)) {
+        if (!(gbfield == Aggregator.NO_GROUPING)) {
             key = ((StringField)tup.getField(gbfield)).getValue();
         }
 
         // val
-        if(!gbIdxToCount.containsKey(key)){
-            gbIdxToCount.put(key,1);
-        } else {
-            int count = gbIdxToCount.get(key);
-            gbIdxToCount.replace(key,count+1);
+        GroupState.of(gbIdxToState, key).count++;
+    }
+
+    /**
+     * Merge the selected rows of a batch into the aggregate
+     * @param b the batch containing an aggregate column and a group-by column
+     */
+    public void mergeBatchIntoGroup(TupleBatch b) {
+        if (gbfield == Aggregator.NO_GROUPING) {
+            if (b.size() > 0) {
+                GroupState.of(gbIdxToState, "NoGrouping").count += b.size();
+            }
+            return;
+        }
+        for (int k = 0; k < b.size(); k++) {
+            int row = b.row(k);
+            if (gbfieldType == Type.INT_TYPE) {
+                GroupState.of(intGroups, b.getInt(gbfield, row)).count++;
+                continue;
+            }
+            String key = ((StringField) b.getField(gbfield, row)).getValue();
+            GroupState.of(gbIdxToState, key).count++;
         }
     }
 
@@ -74,10 +99,12 @@ public class StringAggregator implements Aggregator {
         // throw new UnsupportedOperationException("please implement me for lab3");
         return new DbIterator() {
             private Iterator iter = null;
+            private int slot = -1; // next slot of intGroups, when grouping by int
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
-                iter = gbIdxToCount.keySet().iterator();
+                iter = gbIdxToState.keySet().iterator();
+                slot = intGroups.nextSlot(0);
             }
 
             @Override
@@ -85,7 +112,7 @@ public class StringAggregator implements Aggregator {
                 if (iter == null)
                     throw new IllegalStateException("Operator not yet open");
 
-                return iter.hasNext();
+                return intGrouping() ? slot >= 0 : iter.hasNext();
             }
 
             @Override
@@ -93,22 +120,26 @@ public class StringAggregator implements Aggregator {
                 if (iter == null)
                     throw new IllegalStateException("Operator not yet open");
 
-                if (!iter.hasNext()) {
+                if (!hasNext()) {
                     throw new NoSuchElementException();
                 }
 
-                String key = (String) iter.next();
-                IntField val = new IntField(gbIdxToCount.get(key));
                 // construct a Tuple
                 TupleDesc td = getTupleDesc();
                 Tuple tp = new Tuple(td);
 
+                if (intGrouping()) {
+                    tp.setField(0, new IntField(intGroups.keyAt(slot)));
+                    tp.setField(1, new IntField(intGroups.valueAt(slot).count));
+                    slot = intGroups.nextSlot(slot + 1);
+                    return tp;
+                }
+
+                String key = (String) iter.next();
+                IntField val = new IntField(gbIdxToState.get(key).count);
+
                 if (gbfield == Aggregator.NO_GROUPING) {
                     tp.setField(0, val);
-                } else if (gbfieldType == Type.INT_TYPE) {
-                    IntField bgFieldValue = new IntField(Integer.parseInt(key));
-                    tp.setField(0, bgFieldValue);
-                    tp.setField(1, val);
                 } else {
                     StringField bgFieldValue = new StringField(key, key.length());
                     tp.setField(0, bgFieldValue);
@@ -137,6 +168,7 @@ public class StringAggregator implements Aggregator {
             @Override
             public void close() {
                 iter = null;
+                slot = -1;
             }
         };
     }
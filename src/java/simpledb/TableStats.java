@@ -1,8 +1,13 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -72,6 +77,9 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /** Pages of a table each thread computing its statistics must at least have */
+    static final int MIN_PAGES_PER_SCAN = 64;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -110,25 +118,18 @@ public class TableStats {
             maxs[i] = Integer.MIN_VALUE;
             mins[i] = Integer.MAX_VALUE;
         }
-        // scan the data once to determine the min and max valus
+        // scan the data once to determine the min and max values, and again
+        // to populate the histograms; each range of pages is scanned by its
+        // own thread
+        List<PageRange> ranges = PageRange.split(((HeapFile) f).numPages(),
+                Exchange.getParallelism(), MIN_PAGES_PER_SCAN);
         try {
-            Transaction t = new Transaction();
-            t.start();
-            SeqScan s = new SeqScan(t.getId(), tableid, "t");
-            s.open();
-            while (s.hasNext()) {
-                Tuple tup = s.next();
+            for (RangeStats r : scan(tableid, ranges, false)) {
                 for (int i = 0; i < td.numFields(); i++) {
-                    if (td.getFieldType(i) == Type.INT_TYPE) {
-                        int v = ((IntField) tup.getField(i)).getValue();
-                        if (v > maxs[i])
-                            maxs[i] = v;
-                        if (v < mins[i])
-                            mins[i] = v;
-                    }
+                    mins[i] = Math.min(mins[i], r.mins[i]);
+                    maxs[i] = Math.max(maxs[i], r.maxs[i]);
                 }
             }
-            t.commit();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -145,25 +146,15 @@ public class TableStats {
         basePages = ((HeapFile) f).numPages();
         int count = 0;
         try {
-            Transaction t = new Transaction();
-            t.start();
-            SeqScan s = new SeqScan(t.getId(), tableid, "t");
-            s.open();
-            while (s.hasNext()) { // scan again to populate histograms
-                Tuple tup = s.next();
-                count++;
+            for (RangeStats r : scan(tableid, ranges, true)) {
+                count += r.count;
                 for (int i = 0; i < td.numFields(); i++) {
-                    if (td.getFieldType(i) == Type.INT_TYPE) {
-                        int v = ((IntField) tup.getField(i)).getValue();
-                        ((IntHistogram) histograms[i]).addValue(v);
-                    } else {
-                        String v = ((StringField) tup.getField(i)).getValue();
-                        ((StringHistogram) histograms[i]).addValue(v);
-                    }
+                    if (td.getFieldType(i) == Type.INT_TYPE)
+                        ((IntHistogram) histograms[i]).merge((IntHistogram) r.histograms[i]);
+                    else
+                        ((StringHistogram) histograms[i]).merge((StringHistogram) r.histograms[i]);
                 }
-
             }
-            t.commit();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -171,6 +162,78 @@ public class TableStats {
         baseTups = count;
     }
 
+    /** Statistics of one range of pages of a table */
+    private static class RangeStats {
+        final int[] mins, maxs;
+        final Object[] histograms;
+        int count = 0;
+
+        RangeStats(int numFields) {
+            mins = new int[numFields];
+            maxs = new int[numFields];
+            histograms = new Object[numFields];
+            Arrays.fill(mins, Integer.MAX_VALUE);
+            Arrays.fill(maxs, Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Scan each of ranges of table tableid in parallel, in one transaction.
+     * If fill is false, collect the min and max of each int field; otherwise
+     * count the tuples and fill histograms with the buckets of this object.
+     */
+    private List<RangeStats> scan(final int tableid, List<PageRange> ranges,
+            final boolean fill) throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        final TransactionId tid = t.getId();
+        List<Callable<RangeStats>> tasks = new ArrayList<Callable<RangeStats>>();
+        for (final PageRange range : ranges) {
+            tasks.add(new Callable<RangeStats>() {
+                public RangeStats call() throws Exception {
+                    RangeStats r = new RangeStats(td.numFields());
+                    for (int i = 0; fill && i < td.numFields(); i++) {
+                        if (td.getFieldType(i) == Type.INT_TYPE)
+                            r.histograms[i] = new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]);
+                        else
+                            r.histograms[i] = new StringHistogram(NUM_HIST_BINS);
+                    }
+                    // read through a ring, so as not to displace the pool
+                    DbFileIterator s = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid))
+                            .iterator(tid, range, true);
+                    s.open();
+                    while (s.hasNext()) {
+                        Tuple tup = s.next();
+                        r.count++;
+                        for (int i = 0; i < td.numFields(); i++) {
+                            if (td.getFieldType(i) == Type.INT_TYPE) {
+                                int v = ((IntField) tup.getField(i)).getValue();
+                                if (fill) {
+                                    ((IntHistogram) r.histograms[i]).addValue(v);
+                                } else {
+                                    r.mins[i] = Math.min(r.mins[i], v);
+                                    r.maxs[i] = Math.max(r.maxs[i], v);
+                                }
+                            } else if (fill) {
+                                String v = ((StringField) tup.getField(i)).getValue();
+                                ((StringHistogram) r.histograms[i]).addValue(v);
+                            }
+                        }
+                    }
+                    s.close();
+                    return r;
+                }
+            });
+        }
+        List<RangeStats> stats = null;
+        try {
+            stats = Exchange.invokeAll(tasks);
+        } finally {
+            t.transactionComplete(stats == null);
+        }
+        return stats;
+    }
+
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
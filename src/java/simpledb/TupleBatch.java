@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * A batch of up to capacity() rows stored column by column: int columns in
+ * int arrays, other columns in arrays of Fields. A selection vector lists
+ * the rows of the batch that are part of the result, so that a filter only
+ * has to narrow the selection rather than copy rows. Batches carry no
+ * record ids.
+ * <p>
+ * A batch belongs to the operator that fills it, and is only valid until
+ * the next call to that operator's nextBatch(). Consumers may narrow the
+ * selection in place.
+ *
+ * @see BatchIterator
+ */
+public class TupleBatch {
+
+    /** The number of rows operators put in a batch unless told otherwise */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;     // null for columns that are not INT_TYPE
+    private final Field[][] fields; // null for INT_TYPE columns
+    private final int[] sel;
+    private int numRows;
+    private int size;
+    private boolean all = true; // every row is selected, in order
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                ints[j] = new int[capacity];
+            else
+                fields[j] = new Field[capacity];
+        }
+        this.sel = new int[capacity];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows stored, selected or not */
+    public int numRows() {
+        return numRows;
+    }
+
+    /** @return the number of selected rows */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return numRows == capacity;
+    }
+
+    /** @return the row of the k-th selected row */
+    public int row(int k) {
+        return all ? k : sel[k];
+    }
+
+    /** Remove all rows. */
+    public void clear() {
+        numRows = 0;
+        size = 0;
+        all = true;
+    }
+
+    /**
+     * Set the number of rows, after filling the columns with setInt and
+     * setField, and select all of them.
+     */
+    public void setNumRows(int n) {
+        if (n < 0 || n > capacity)
+            throw new IllegalArgumentException("bad number of rows " + n);
+        numRows = n;
+        size = n;
+        all = true;
+    }
+
+    /**
+     * @return the selection vector, whose first size() entries are the
+     *         selected rows in order. Write the rows to keep into it and
+     *         call select() to narrow the selection.
+     */
+    public int[] selection() {
+        if (all) {
+            for (int k = 0; k < size; k++)
+                sel[k] = k;
+            all = false;
+        }
+        return sel;
+    }
+
+    /** Keep the first n entries of selection() as the selected rows. */
+    public void select(int n) {
+        if (n < 0 || n > size)
+            throw new IllegalArgumentException("bad selection size " + n);
+        selection();
+        size = n;
+    }
+
+    /** @return the values of int column j, indexed by row */
+    public int[] ints(int j) {
+        if (ints[j] == null)
+            throw new IllegalArgumentException("column " + j + " is not an int column");
+        return ints[j];
+    }
+
+    public int getInt(int j, int row) {
+        return ints(j)[row];
+    }
+
+    public void setInt(int j, int row, int v) {
+        ints(j)[row] = v;
+    }
+
+    public Field getField(int j, int row) {
+        if (ints[j] != null)
+            return new IntField(ints[j][row]);
+        return fields[j][row];
+    }
+
+    public void setField(int j, int row, Field f) {
+        if (ints[j] != null)
+            ints[j][row] = ((IntField) f).getValue();
+        else
+            fields[j][row] = f;
+    }
+
+    /** Append the fields of t as a new, selected row. */
+    public void add(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (!all)
+            sel[size] = numRows;
+        for (int j = 0; j < ints.length; j++)
+            setField(j, numRows, t.getField(j));
+        numRows++;
+        size++;
+    }
+
+    /**
+     * Append the concatenation of tuple t and row row of batch b as a new,
+     * selected row.
+     */
+    public void add(Tuple t, TupleBatch b, int row) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (!all)
+            sel[size] = numRows;
+        int n = t.getTupleDesc().numFields();
+        for (int j = 0; j < n; j++)
+            setField(j, numRows, t.getField(j));
+        for (int j = n; j < ints.length; j++) {
+            if (ints[j] != null)
+                ints[j][numRows] = b.getInt(j - n, row);
+            else
+                fields[j][numRows] = b.getField(j - n, row);
+        }
+        numRows++;
+        size++;
+    }
+
+    /**
+     * Make this batch a copy of the columns cols of src, with the same
+     * selection. Field objects are shared with src, not copied.
+     */
+    public void project(TupleBatch src, List<Integer> cols) {
+        for (int j = 0; j < cols.size(); j++) {
+            int c = cols.get(j);
+            if (ints[j] != null)
+                System.arraycopy(src.ints(c), 0, ints[j], 0, src.numRows);
+            else
+                System.arraycopy(src.fields[c], 0, fields[j], 0, src.numRows);
+        }
+        numRows = src.numRows;
+        size = src.size;
+        all = src.all;
+        if (!all)
+            System.arraycopy(src.sel, 0, sel, 0, size);
+    }
+
+    /** @return row row of this batch as a tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < ints.length; j++)
+            t.setField(j, getField(j, row));
+        return t;
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson and Shasha). Pages seen for the
+ * first time enter a small FIFO queue (A1in). Pages evicted from A1in are
+ * remembered by id only in a ghost queue (A1out); if such a page is loaded
+ * again it has proven to be re-referenced and goes to the main LRU queue
+ * (Am). A long sequential scan therefore cycles through A1in without pushing
+ * hot pages out of Am.
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    private final PageIdList a1in = new PageIdList();
+    private final PageIdList a1out = new PageIdList();
+    private final PageIdList am = new PageIdList();
+    private final int maxA1in;
+    private final int maxA1out;
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     */
+    public TwoQueueReplacementPolicy(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        // the tuning suggested in the 2Q paper
+        maxA1in = Math.max(1, capacity / 4);
+        maxA1out = Math.max(1, capacity / 2);
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (am.contains(pid) || a1out.remove(pid)) {
+            am.addFirst(pid);
+        } else if (!a1in.contains(pid)) {
+            a1in.addFirst(pid);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        // hits in A1in are treated as correlated references and ignored
+        if (am.contains(pid))
+            am.addFirst(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.addFirst(pid);
+            if (a1out.size() > maxA1out)
+                a1out.removeLast();
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        PageId victim;
+        if (a1in.size() > maxA1in) {
+            victim = a1in.lastMatching(evictable);
+            if (victim == null)
+                victim = am.lastMatching(evictable);
+        } else {
+            victim = am.lastMatching(evictable);
+            if (victim == null)
+                victim = a1in.lastMatching(evictable);
+        }
+        return victim;
+    }
+
+    public List<PageId> nextVictims(int n) {
+        List<PageId> victims = new ArrayList<PageId>(n);
+        PageIdList first = a1in.size() > maxA1in ? a1in : am;
+        first.addOldest(n, victims);
+        (first == a1in ? am : a1in).addOldest(n - victims.size(), victims);
+        return victims;
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The waits-for graph of the transactions blocked in a LockManager. There is
+ * an edge from a waiting transaction to every transaction holding a lock it
+ * is waiting for. A cycle is a deadlock; it is resolved by choosing the
+ * youngest transaction on the cycle as the victim, which is then aborted.
+ * <p>
+ * Several threads may work for one transaction, as the workers of a
+ * parallel plan do, so a transaction can have several blocked requests at
+ * once. Its edges are those of all of them.
+ * <p>
+ * The graph is only updated by transactions that block, so it costs nothing
+ * on the uncontended path. Callers may hold a lock table latch while calling
+ * in here, but the graph never acquires a latch itself.
+ *
+ * @see LockManager
+ */
+class WaitsForGraph {
+
+    /** A blocked lock request and how to wake it up. */
+    static class Waiter {
+        final TransactionId tid;
+        final ReentrantLock latch;
+        final Condition condition;
+        Set<TransactionId> holders;
+
+        Waiter(TransactionId tid, ReentrantLock latch, Condition condition) {
+            this.tid = tid;
+            this.latch = latch;
+            this.condition = condition;
+        }
+
+        /** Wake the waiting thread so that it rechecks its request. */
+        void wake() {
+            latch.lock();
+            try {
+                condition.signalAll();
+            } finally {
+                latch.unlock();
+            }
+        }
+    }
+
+    private final HashMap<TransactionId, Set<Waiter>> waiting = new HashMap<TransactionId, Set<Waiter>>();
+    private final HashSet<TransactionId> victims = new HashSet<TransactionId>();
+
+    /**
+     * Record that w is blocked by the given holders, replacing any edges it
+     * had before, and look for a deadlock the new edges close.
+     *
+     * @return the victim chosen to break a new deadlock, or null
+     */
+    synchronized TransactionId waitFor(Waiter w, Set<TransactionId> holders) {
+        w.holders = holders;
+        Set<Waiter> ws = waiting.get(w.tid);
+        if (ws == null) {
+            ws = new HashSet<Waiter>();
+            waiting.put(w.tid, ws);
+        }
+        ws.add(w);
+
+        ArrayList<TransactionId> cycle = new ArrayList<TransactionId>();
+        if (!findPath(w.tid, w.tid, new HashSet<TransactionId>(), cycle))
+            return null;
+        TransactionId victim = w.tid;
+        for (TransactionId t : cycle) {
+            // someone on the cycle is already being aborted, which breaks it
+            if (victims.contains(t))
+                return null;
+            if (t.getId() > victim.getId())
+                victim = t;
+        }
+        victims.add(victim);
+        return victim;
+    }
+
+    // depth-first search for a path of waits-for edges from t to target;
+    // on success path holds the transactions along it
+    private boolean findPath(TransactionId t, TransactionId target,
+            HashSet<TransactionId> visited, ArrayList<TransactionId> path) {
+        Set<Waiter> ws = waiting.get(t);
+        if (ws == null)
+            return false;
+        for (Waiter w : ws) {
+            for (TransactionId holder : w.holders) {
+                if (holder.equals(target)) {
+                    path.add(t);
+                    return true;
+                }
+                if (visited.add(holder) && findPath(holder, target, visited, path)) {
+                    path.add(t);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @return the requests tid is currently blocked on */
+    synchronized List<Waiter> waitersOf(TransactionId tid) {
+        Set<Waiter> ws = waiting.get(tid);
+        return ws == null ? new ArrayList<Waiter>() : new ArrayList<Waiter>(ws);
+    }
+
+    /** Remove the edges of w once it stops waiting. */
+    synchronized void doneWaiting(Waiter w) {
+        Set<Waiter> ws = waiting.get(w.tid);
+        if (ws != null && ws.remove(w) && ws.isEmpty())
+            waiting.remove(w.tid);
+    }
+
+    /** @return true if tid was chosen as a deadlock victim */
+    synchronized boolean isVictim(TransactionId tid) {
+        return victims.contains(tid);
+    }
+
+    /** Forget tid once it has completed. */
+    synchronized void transactionComplete(TransactionId tid) {
+        waiting.remove(tid);
+        victims.remove(tid);
+    }
+}
@@ -83,6 +83,47 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.isSlotUsed(20));
 	}
 
+	/**
+	 * Unit test for BTreeFile.readPage() with the file memory-mapped
+	 */
+	@Test
+	public void readMappedPage() throws Exception {
+		f.setMemoryMapped(true);
+		BTreePageId rootPtrPid = new BTreePageId(f.getId(), 0, BTreePageId.ROOT_PTR);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) f.readPage(rootPtrPid);
+		assertEquals(1, rootPtr.getRootId().pageNumber());
+
+		BTreeLeafPage page = (BTreeLeafPage) f.readPage(new BTreePageId(f.getId(), 1, BTreePageId.LEAF));
+		assertEquals(482, page.getNumEmptySlots());
+		try {
+			f.readPage(new BTreePageId(f.getId(), 2, BTreePageId.LEAF));
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+		}
+		f.close();
+	}
+
+	/**
+	 * Unit test for BTreeFile.close(): pages can still be read and written
+	 * after the channel is closed
+	 */
+	@Test
+	public void closeAndReopen() throws Exception {
+		BTreePageId pid = new BTreePageId(f.getId(), 1, BTreePageId.LEAF);
+		BTreeLeafPage page = (BTreeLeafPage) f.readPage(pid);
+		f.close();
+		f.writePage(page);
+		f.close();
+		page = (BTreeLeafPage) f.readPage(pid);
+		assertEquals(482, page.getNumEmptySlots());
+		assertEquals(1, f.numPages());
+		try {
+			f.readPage(new BTreePageId(f.getId(), 2, BTreePageId.LEAF));
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		BTreeFile smallFile = BTreeUtility.createRandomBTreeFile(2, 3, null,
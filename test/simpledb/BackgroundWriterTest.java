@@ -0,0 +1,93 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 20;
+    private static final int CLEAN_FRAMES = 10;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+    private Page[] dirty;
+
+    @Before public void setUp() throws Exception {
+        // about 100 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 50000, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+        // fill the pool with dirty pages, oldest first
+        dirty = new Page[POOL_PAGES];
+        for (int i = 0; i < POOL_PAGES; i++) {
+            dirty[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            ((HeapPage) dirty[i]).deleteTuple(((HeapPage) dirty[i]).iterator().next());
+            dirty[i].markDirty(true, tid);
+        }
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.stopBackgroundWriter();
+        bp.transactionComplete(tid, false);
+    }
+
+    private void read(int from, int to) throws Exception {
+        for (int i = from; i < to; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Without the writer, the first eviction writes its victim; the pages
+     * read after it are clean and replace each other.
+     */
+    @Test public void foregroundWrites() throws Exception {
+        read(POOL_PAGES, POOL_PAGES + CLEAN_FRAMES);
+        assertEquals(1, bp.getDirtyEvictions());
+    }
+
+    /** The writer cleans the next victims, so eviction only drops pages. */
+    @Test public void writesAhead() throws Exception {
+        bp.startBackgroundWriter(1, CLEAN_FRAMES);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getPagesWrittenAhead() < CLEAN_FRAMES && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        bp.stopBackgroundWriter();
+        assertEquals(CLEAN_FRAMES, bp.getPagesWrittenAhead());
+
+        for (int i = 0; i < POOL_PAGES; i++) {
+            Page p = dirty[i];
+            if (i < CLEAN_FRAMES) {
+                assertNull(p.isDirty());
+                assertTrue(Arrays.equals(p.getPageData(), hf.readPage(p.getId()).getPageData()));
+            } else {
+                assertNotNull(p.isDirty());
+            }
+        }
+        read(POOL_PAGES, POOL_PAGES + CLEAN_FRAMES);
+        assertEquals(0, bp.getDirtyEvictions());
+    }
+
+    /** Only the pages next in line are written, and only once. */
+    @Test public void writesNextVictims() throws Exception {
+        assertEquals(5, bp.writeAhead(5));
+        assertEquals(0, bp.writeAhead(5));
+        for (int i = 0; i < POOL_PAGES; i++)
+            assertEquals(i >= 5, dirty[i].isDirty() != null);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
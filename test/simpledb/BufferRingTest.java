@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 50;
+
+    private BufferPool bp;
+    private HeapFile big;
+    private ArrayList<ArrayList<Integer>> bigTuples;
+    private BTreeFile index;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        bigTuples = new ArrayList<ArrayList<Integer>>();
+        // about 200 pages, four times the pool
+        big = SystemTestUtil.createRandomHeapFile(2, 100000, null, bigTuples);
+        index = BTreeUtility.createRandomBTreeFile(2, 20000, null, null, 0);
+        bp = Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.transactionComplete(tid);
+    }
+
+    /** Look up a key in the index, as an OLTP transaction would. */
+    private void lookup(int key) throws Exception {
+        DbFileIterator it = index.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+    }
+
+    /** A scan of a table larger than the pool keeps the index's pages. */
+    @Test public void scanKeepsHotPages() throws Exception {
+        lookup(42);
+        long before = bp.getMisses();
+        SystemTestUtil.matchTuples(new SeqScan(tid, big.getId(), "t"), bigTuples);
+        assertEquals(big.numPages(), bp.getMisses() - before);
+
+        before = bp.getMisses();
+        lookup(42);
+        assertEquals(0, bp.getMisses() - before);
+    }
+
+    /** The batch path of SeqScan reads through a ring too. */
+    @Test public void batchScanKeepsHotPages() throws Exception {
+        lookup(42);
+        SeqScan scan = new SeqScan(tid, big.getId(), "t");
+        int rows = 0;
+        scan.open();
+        for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch())
+            rows += b.numRows();
+        scan.close();
+        assertEquals(bigTuples.size(), rows);
+
+        long before = bp.getMisses();
+        lookup(42);
+        assertEquals(0, bp.getMisses() - before);
+    }
+
+    /** Collecting statistics reads through a ring even for small tables. */
+    @Test public void tableStatsKeepHotPages() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        assertTrue(small.numPages() < POOL_PAGES);
+        lookup(42);
+        new TableStats(small.getId(), 1);
+        long before = bp.getMisses();
+        lookup(42);
+        assertEquals(0, bp.getMisses() - before);
+    }
+
+    /** A table that fits in the pool is cached by a scan, as before. */
+    @Test public void smallTableIsCached() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        assertNull(bp.newScanRing(small.numPages()));
+        SystemTestUtil.matchTuples(new SeqScan(tid, small.getId(), "t"), tuples);
+        long before = bp.getMisses();
+        SystemTestUtil.matchTuples(new SeqScan(tid, small.getId(), "t"), tuples);
+        assertEquals(0, bp.getMisses() - before);
+    }
+
+    /** A range of a large table that fits in the pool is cached too. */
+    @Test public void smallRangeIsCached() throws Exception {
+        PageRange range = new PageRange(0, POOL_PAGES / 2);
+        for (int pass = 0; pass < 2; pass++) {
+            long before = bp.getMisses();
+            SeqScan scan = new SeqScan(tid, big.getId(), "t", range);
+            scan.open();
+            while (scan.hasNext())
+                scan.next();
+            scan.close();
+            assertEquals(pass == 0 ? POOL_PAGES / 2 : 0, bp.getMisses() - before);
+        }
+    }
+
+    /** A page of a ring used without the ring is not recycled. */
+    @Test public void sharedPageIsKept() throws Exception {
+        BufferRing ring = bp.newRing();
+        HeapPageId first = new HeapPageId(big.getId(), 0);
+        bp.getPage(tid, first, Permissions.READ_ONLY, ring);
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        for (int i = 1; i < 3 * ring.capacity(); i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+
+        long before = bp.getMisses();
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        assertEquals(0, bp.getMisses() - before);
+        // but the ring's own pages were
+        bp.getPage(tid, new HeapPageId(big.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(1, bp.getMisses() - before);
+        bp.releaseRing(ring);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ConcurrentBufferPoolTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 10;
+    private static final int THREADS = 8;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // about 40 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.transactionComplete(tid);
+    }
+
+    private Page read(int pgNo) throws Exception {
+        return bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /** Hits served without the pool's lock still count for the LRU order. */
+    @Test public void hitsReachPolicy() throws Exception {
+        Page first = read(0);
+        for (int i = 1; i < POOL_PAGES; i++)
+            read(i);
+        read(0);
+        read(POOL_PAGES);
+        // page 1 was evicted, not page 0
+        long misses = bp.getMisses();
+        assertSame(first, read(0));
+        assertEquals(misses, bp.getMisses());
+        read(1);
+        assertEquals(misses + 1, bp.getMisses());
+    }
+
+    /** A pinned page stays resident until its last pin is released. */
+    @Test public void pinnedPageNotEvicted() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Page pinned = bp.getPinnedPage(tid, pid, Permissions.READ_ONLY, null);
+        bp.getPinnedPage(tid, pid, Permissions.READ_ONLY, null);
+        assertEquals(2, bp.pinCount(pid));
+        for (int i = 1; i < 3 * POOL_PAGES; i++)
+            read(i);
+        assertSame(pinned, read(0));
+
+        bp.unpinPage(pid);
+        for (int i = 1; i < 3 * POOL_PAGES; i++)
+            read(i);
+        assertSame(pinned, read(0));
+
+        bp.unpinPage(pid);
+        assertEquals(0, bp.pinCount(pid));
+        for (int i = 1; i < 3 * POOL_PAGES; i++)
+            read(i);
+        assertNotSame(pinned, read(0));
+    }
+
+    /** Eviction fails if every frame is pinned. */
+    @Test(expected = DbException.class)
+    public void allPinned() throws Exception {
+        for (int i = 0; i < POOL_PAGES; i++)
+            bp.getPinnedPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY, null);
+        read(POOL_PAGES);
+    }
+
+    /** A scan pins the page it is on, and releases it when closed. */
+    @Test public void scanPinsCurrentPage() throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        it.next();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertEquals(1, bp.pinCount(pid));
+        it.close();
+        assertEquals(0, bp.pinCount(pid));
+    }
+
+    /** A SeqScan read a batch at a time pins no page; one read by tuple does. */
+    @Test public void batchScanPinsNothing() throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.open();
+        assertNotNull(scan.nextBatch());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertEquals(0, bp.pinCount(pid));
+        scan.rewind();
+        scan.next();
+        assertEquals(1, bp.pinCount(pid));
+        scan.rewind();
+        assertEquals(0, bp.pinCount(pid));
+        scan.close();
+    }
+
+    /**
+     * Many threads hitting and missing concurrently get the right pages, and
+     * every access is counted once.
+     */
+    @Test public void concurrentAccess() throws Exception {
+        final int accesses = 2000;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final int seed = t;
+            threads.add(new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    TransactionId mine = new TransactionId();
+                    try {
+                        for (int i = 0; i < accesses; i++) {
+                            // mostly a few hot pages, sometimes any page
+                            int pgNo = r.nextInt(4) > 0 ? r.nextInt(POOL_PAGES / 2)
+                                    : r.nextInt(hf.numPages());
+                            HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+                            Page p = bp.getPage(mine, pid, Permissions.READ_ONLY);
+                            assertEquals(pid, p.getId());
+                        }
+                        bp.transactionComplete(mine);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertEquals(THREADS * accesses, bp.getHits() + bp.getMisses());
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ConcurrentBufferPoolTest.class);
+    }
+}
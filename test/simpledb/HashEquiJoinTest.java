@@ -130,6 +130,120 @@ public class HashEquiJoinTest extends SimpleDbTestBase {
       validateJoin(1,10,1,30001);
   }
 
+  /** A list of tuples that counts how often it is rewound. */
+  private static class CountingTupleIterator extends TupleIterator {
+    private static final long serialVersionUID = 1L;
+    int rewinds = 0;
+    int opens = 0;
+
+    CountingTupleIterator(TupleIterator tuples) {
+      super(tuples.getTupleDesc(), list(tuples));
+      open();
+    }
+
+    private static ArrayList<Tuple> list(TupleIterator tuples) {
+      ArrayList<Tuple> list = new ArrayList<Tuple>();
+      while (tuples.hasNext())
+        list.add(tuples.next());
+      return list;
+    }
+
+    public void open() {
+      opens++;
+      super.open();
+    }
+
+    public void rewind() {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /** @return rows tuples {key, "k" + key + "-" + i}, with key = i % keys */
+  private static CountingTupleIterator keyedTuples(int rows, int keys) {
+    Object[] data = new Object[2 * rows];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = i % keys;
+      data[2 * i + 1] = "k" + (i % keys) + "-" + i;
+    }
+    return new CountingTupleIterator(TestUtil.createTupleList(2, data));
+  }
+
+  /** @return the number of rows op returns, checking that their keys match */
+  private static int countJoined(HashEquiJoin op) throws Exception {
+    int cnt = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      assertEquals(key, ((IntField) t.getField(2)).getValue());
+      assertTrue(((StringField) t.getField(1)).getValue().startsWith("k" + key + "-"));
+      assertTrue(((StringField) t.getField(3)).getValue().startsWith("k" + key + "-"));
+      cnt++;
+    }
+    return cnt;
+  }
+
+  /**
+   * A left child larger than the hash table is partitioned, and each child
+   * is read only once
+   */
+  @Test public void spilledJoin() throws Exception {
+    CountingTupleIterator left = keyedTuples(2000, 500);
+    CountingTupleIterator right = keyedTuples(2000, 700);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, left, right, 100);
+    op.open();
+    // each of the 500 left keys occurs 4 times; keys below 600 occur 3
+    // times on the right
+    assertEquals(500 * 4 * 3, countJoined(op));
+    assertEquals(0, right.rewinds);
+
+    op.rewind();
+    assertEquals(500 * 4 * 3, countJoined(op));
+    op.close();
+  }
+
+  /**
+   * A ParallelHashJoin whose left child is larger than the hash table
+   * partitions both sides, and reads each part of the right child once
+   */
+  @Test public void spilledParallelJoin() throws Exception {
+    CountingTupleIterator left = keyedTuples(2000, 500);
+    CountingTupleIterator[] parts = { keyedTuples(1000, 700), keyedTuples(1000, 700) };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ParallelHashJoin op = new ParallelHashJoin(pred, left, parts, 100);
+    op.open();
+    int cnt = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      cnt++;
+    }
+    // each of the 500 left keys occurs 4 times; keys below 300 occur 2
+    // times in each part, the others once
+    assertEquals(300 * 4 * 2 * 2 + 200 * 4 * 2, cnt);
+    for (CountingTupleIterator part : parts) {
+      assertEquals(2, part.opens);
+      assertEquals(0, part.rewinds);
+    }
+    op.close();
+  }
+
+  /**
+   * A partition that cannot be split, because all its tuples have one key,
+   * is joined a hash table at a time
+   */
+  @Test public void skewedJoin() throws Exception {
+    CountingTupleIterator left = keyedTuples(300, 1);
+    CountingTupleIterator right = keyedTuples(50, 1);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, left, right, 100);
+    op.open();
+    assertEquals(300 * 50, countJoined(op));
+    assertEquals(0, right.rewinds);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -77,6 +77,40 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.close(): the channel is reopened on the next read,
+     * and dropping the table from the catalog closes it.
+     */
+    @Test
+    public void closeAndReopen() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.close();
+        assertEquals(484, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+        Database.getCatalog().clear();
+        assertEquals(1, hf.numPages());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(484, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() with the file memory-mapped, before
+     * and after the file grows.
+     */
+    @Test
+    public void readMappedPage() throws Exception {
+        hf.setMemoryMapped(true);
+        assertEquals(484, ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0))).getNumEmptySlots());
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+        try {
+            hf.readPage(next);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+
+        hf.writePage(new HeapPage(next, HeapPage.createEmptyPageData()));
+        assertEquals(504, ((HeapPage) hf.readPage(next)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +155,52 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.iterator() over a range of pages
+     */
+    @Test
+    public void rangeIterator() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+        assertEquals(2, twoPageFile.numPages());
+
+        int total = 0;
+        for (PageRange r : PageRange.split(twoPageFile.numPages(), 2)) {
+            DbFileIterator it = twoPageFile.iterator(tid, r);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                RecordId rid = it.next().getRecordId();
+                assertTrue(r.contains(rid.getPageId().pageNumber()));
+                count++;
+            }
+            // rewinding starts at the start of the range again
+            it.rewind();
+            for (int i = 0; i < count; i++)
+                it.next();
+            assertFalse(it.hasNext());
+            it.close();
+            total += count;
+        }
+        assertEquals(520, total);
+
+        // the end of a range may be past the end of the file
+        DbFileIterator it = twoPageFile.iterator(tid, new PageRange(1, Integer.MAX_VALUE));
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(520 - 504, count);
+
+        it = twoPageFile.iterator(tid, new PageRange(2, 5));
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
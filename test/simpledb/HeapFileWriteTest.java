@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +46,127 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple() after a delete frees a slot
+     */
+    @Test public void insertAfterDelete() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 505; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() from concurrent transactions:
+     * they wait for each other's pages, but never deadlock
+     */
+    @Test(timeout=20000) public void concurrentInserts() throws Exception {
+        final int threads = 4;
+        final int transactions = 10;
+        final int inserts = 100;
+        final java.util.concurrent.atomic.AtomicReference<Throwable> failure =
+                new java.util.concurrent.atomic.AtomicReference<Throwable>();
+        Thread[] inserters = new Thread[threads];
+        for (int n = 0; n < threads; n++) {
+            inserters[n] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < transactions; i++) {
+                            TransactionId mine = new TransactionId();
+                            for (int j = 0; j < inserts; j++)
+                                Database.getBufferPool().insertTuple(mine, empty.getId(),
+                                        Utility.getHeapTuple(j, 2));
+                            Database.getBufferPool().transactionComplete(mine);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            inserters[n].start();
+        }
+        for (Thread t : inserters)
+            t.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+
+        int count = 0;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(threads * transactions * inserts, count);
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() after an abort undoes the inserts
+     * that filled a page: the page is used again instead of a new one
+     */
+    @Test public void insertAfterAbort() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId aborted = new TransactionId();
+        for (int i = 0; i < 504; ++i)
+            bp.insertTuple(aborted, empty.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(1, empty.numPages());
+        bp.transactionComplete(aborted, false);
+
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(1, empty.numPages());
+    }
+
+    /**
+     * Unit test for FreeSpaceMap: the map is stored, and rebuilt from the
+     * page headers when its file is missing
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        for (int i = 0; i < 1009; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().flushAllPages();
+        empty.close();
+
+        FileChannel heap = FileChannel.open(empty.getFile().toPath(), StandardOpenOption.READ);
+        FreeSpaceMap fsm = FreeSpaceMap.open(empty.getFile(), heap, 504);
+        assertEquals(2, fsm.nextFree(0));
+        fsm.close();
+
+        assertTrue(FreeSpaceMap.fileFor(empty.getFile()).delete());
+        fsm = FreeSpaceMap.open(empty.getFile(), heap, 504);
+        assertEquals(2, fsm.nextFree(0));
+        fsm.close();
+        heap.close();
+        FreeSpaceMap.fileFor(empty.getFile()).delete();
+    }
+
+    /**
+     * Unit test for HeapFile.close(): the map of a table whose file was
+     * deleted goes with it
+     */
+    @Test public void closeDeletesOrphanedMap() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        Database.getBufferPool().flushAllPages();
+        java.io.File side = FreeSpaceMap.fileFor(empty.getFile());
+        assertTrue(side.exists());
+        empty.close();
+        assertTrue(side.exists());
+
+        empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertTrue(empty.getFile().delete());
+        empty.close();
+        assertFalse(side.exists());
+    }
+
     /**
      * JUnit suite target
      */
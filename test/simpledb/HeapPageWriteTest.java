@@ -1,9 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -85,6 +87,43 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.insertTuple(): the tuple is written into the
+     * page data, and the before image keeps the old data
+     */
+    @Test public void insertInPlace() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 11 }));
+        assertEquals(7, page.getInt(20, 0));
+        assertEquals(11, page.getInt(20, 1));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertTrue(copy.isSlotUsed(20));
+        assertEquals(11, copy.getInt(20, 1));
+        assertFalse(page.getBeforeImage().isSlotUsed(20));
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple() on a page read from a buffer that
+     * changes once the page is written back, as a mapped file does: the
+     * buffer is never written, and the before image does not follow it
+     */
+    @Test public void insertIntoMapped() throws Exception {
+        java.nio.ByteBuffer mapped = java.nio.ByteBuffer.allocateDirect(BufferPool.getPageSize());
+        mapped.put(HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage page = new HeapPage(pid, mapped);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 11 }));
+        assertEquals(11, page.getInt(20, 1));
+        assertEquals(0, mapped.get(2) & (1 << 4));
+
+        // write the page back
+        mapped.clear();
+        mapped.put(page.getPageData());
+        assertFalse(page.getBeforeImage().isSlotUsed(20));
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashMapTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for IntHashMap.put() and get(), across growing the table
+     */
+    @Test public void putGet() {
+        IntHashMap<Integer> map = new IntHashMap<Integer>();
+        for (int i = -5000; i < 5000; i++)
+            assertNull(map.put(i * 7, i));
+        assertEquals(10000, map.size());
+        for (int i = -5000; i < 5000; i++)
+            assertEquals(Integer.valueOf(i), map.get(i * 7));
+        assertNull(map.get(1));
+        assertEquals(Integer.valueOf(3), map.put(21, 42));
+        assertEquals(Integer.valueOf(42), map.get(21));
+        assertEquals(10000, map.size());
+    }
+
+    /**
+     * Unit test for iterating over IntHashMap by slot, and for clear()
+     */
+    @Test public void slots() {
+        IntHashMap<String> map = new IntHashMap<String>(4);
+        HashMap<Integer, String> expected = new HashMap<Integer, String>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i << 16, "v" + i);
+            expected.put(i << 16, "v" + i);
+        }
+        HashMap<Integer, String> actual = new HashMap<Integer, String>();
+        for (int s = map.nextSlot(0); s >= 0; s = map.nextSlot(s + 1))
+            actual.put(map.keyAt(s), map.valueAt(s));
+        assertEquals(expected, actual);
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.nextSlot(0));
+        assertNull(map.get(0));
+    }
+
+    /**
+     * Unit test for JoinHashTable: int keys are probed from fields and batches
+     */
+    @Test public void joinHashTable() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        JoinHashTable table = new JoinHashTable(td, 1);
+        for (int i = 0; i < 10; i++)
+            table.add(Utility.getHeapTuple(new int[] { i, i % 3 }));
+        assertEquals(4, table.get(new IntField(0)).size());
+        assertEquals(3, table.get(new IntField(2)).size());
+        assertNull(table.get(new IntField(3)));
+        assertEquals(3, table.lists().size());
+
+        TupleBatch b = new TupleBatch(td);
+        b.add(Utility.getHeapTuple(new int[] { 1, 7 }));
+        b.add(Utility.getHeapTuple(new int[] { 2, 8 }));
+        ArrayList<Tuple> l = table.get(b, 0, 0);
+        assertEquals(3, l.size());
+        assertEquals(1, ((IntField) l.get(0).getField(1)).getValue());
+        assertEquals(3, table.get(b, 0, 1).size());
+        assertNull(table.get(b, 1, 0));
+
+        table.clear();
+        assertNull(table.get(new IntField(0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashMapTest.class);
+    }
+}
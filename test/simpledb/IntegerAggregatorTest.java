@@ -126,6 +126,39 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator over a batch, with an avg whose sum exceeds an int
+   */
+  @Test public void mergeBatchAvg() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    TupleBatch b = new TupleBatch(Utility.getTupleDesc(width1));
+    b.add(Utility.getHeapTuple(new int[] { 1, 2000000000 }));
+    b.add(Utility.getHeapTuple(new int[] { 1, 2000000000 }));
+    b.add(Utility.getHeapTuple(new int[] { 2, -3 }));
+    b.add(Utility.getHeapTuple(new int[] { 2, 6 }));
+    agg.mergeBatchIntoGroup(b);
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 2000000000, 2, 1 }), it);
+  }
+
+  /**
+   * Test IntegerAggregator over a sum outside the int range, which is
+   * clamped to it
+   */
+  @Test public void mergeSumClamped() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { 1, 2000000000 }));
+    agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { 1, 2000000000 }));
+    agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { 2, -2000000000 }));
+    agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { 2, -2000000000 }));
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE, 2, Integer.MIN_VALUE }), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for DbIterator behaviour
    */
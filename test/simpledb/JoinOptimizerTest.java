@@ -265,6 +265,57 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
     }
 
+    /**
+     * Equi-joins of large tables are costed and planned as hash joins, other
+     * joins as nested loops
+     */
+    @Test
+    public void hashJoinTest() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        LogicalJoinNode equalsJoinNode = new LogicalJoinNode(tableName1,
+                tableName2, "c1", "c2", Predicate.Op.EQUALS);
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        nodes.add(equalsJoinNode);
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + ", " + tableName2 + " WHERE "
+                        + tableName1 + ".c1 = " + tableName2 + ".c2;"), nodes);
+
+        // a hash join reads each side once and touches each tuple once
+        double hashCost = jo.estimateHashJoinCost(equalsJoinNode, 1000, 10000, 5.0, 50.0);
+        Assert.assertEquals(5.0 + 50.0 + 1000 + 10000, hashCost, 0.001);
+        Assert.assertTrue(hashCost < jo.estimateJoinCost(equalsJoinNode, 1000, 10000, 5.0, 50.0));
+        // a build side larger than a hash table spills both sides, which
+        // costs more, but still linearly
+        double spilled = jo.estimateHashJoinCost(equalsJoinNode, 3 * HashEquiJoin.MAP_SIZE, 10000, 5.0, 50.0);
+        Assert.assertTrue(spilled > 5.0 + 50.0 + 3 * HashEquiJoin.MAP_SIZE + 10000);
+        Assert.assertEquals(2 * spilled - 5.0 - 50.0, jo.estimateHashJoinCost(equalsJoinNode,
+                6 * HashEquiJoin.MAP_SIZE, 20000, 5.0, 50.0), 0.001);
+        LogicalJoinNode ltJoinNode = new LogicalJoinNode(tableName1,
+                tableName2, "c1", "c2", Predicate.Op.LESS_THAN);
+        Assert.assertEquals(Double.MAX_VALUE,
+                jo.estimateHashJoinCost(ltJoinNode, 1000, 10000, 5.0, 50.0), 0);
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(tableName1, stats1);
+        stats.put(tableName2, stats2);
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        filterSelectivities.put(tableName1, 1.0);
+        filterSelectivities.put(tableName2, 1.0);
+        Vector<LogicalJoinNode> result = jo.orderJoins(stats, filterSelectivities, false);
+        Assert.assertEquals(1, result.size());
+        LogicalJoinNode chosen = result.get(0);
+        Assert.assertTrue(chosen.hashJoin);
+        // the smaller table is built into the hash table
+        Assert.assertEquals(tableName1, chosen.t1Alias);
+        Assert.assertFalse(equalsJoinNode.hashJoin);
+
+        DbIterator scan1 = new SeqScan(tid, tableId1, tableName1);
+        DbIterator scan2 = new SeqScan(tid, tableId2, tableName2);
+        Assert.assertTrue(JoinOptimizer.instantiateJoin(chosen, scan1, scan2) instanceof HashEquiJoin);
+        Assert.assertTrue(JoinOptimizer.instantiateJoin(ltJoinNode, scan1, scan2) instanceof Join);
+    }
+
     /**
      * Determine whether the orderJoins implementation is doing a reasonable job
      * of ordering joins, and not taking an unreasonable amount of time to do so
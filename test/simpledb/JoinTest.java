@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
@@ -105,6 +106,33 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with blocks smaller than the left child
+   */
+  @Test public void smallBlocks() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    // three left tuples per block
+    Join op = new Join(pred, scan1, scan2, 3 * scan1.getTupleDesc().getSize());
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Join returns its first result before reading past the first block
+   */
+  @Test public void streams() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, scan1, scan2, scan1.getTupleDesc().getSize());
+    op.open();
+    assertTrue(op.hasNext());
+    op.next();
+    // only the first left tuple has been read
+    for (int i = 0; i < 3; i++)
+      scan1.next();
+    assertFalse(scan1.hasNext());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,172 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private LockManager lm;
+    private PageId p0;
+    private TransactionId tid1;
+    private TransactionId tid2;
+
+    /** Requests a lock on a separate thread and records whether it was granted. */
+    private class LockGrabber extends Thread {
+        private final TransactionId tid;
+        private final PageId pid;
+        private final Permissions perm;
+        volatile boolean acquired = false;
+
+        LockGrabber(TransactionId tid, Permissions perm) {
+            this(tid, p0, perm);
+        }
+
+        LockGrabber(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+        }
+
+        public void run() {
+            try {
+                lm.acquireLock(tid, pid, perm);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                // leave acquired false
+            }
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager();
+        p0 = new HeapPageId(-1, 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * Unit test for LockManager.acquireLock() with two readers
+     */
+    @Test public void sharedLocksAreCompatible() throws Exception {
+        lm.acquireLock(tid1, p0, Permissions.READ_ONLY);
+        lm.acquireLock(tid2, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+    }
+
+    /**
+     * Unit test for LockManager.acquireLock() waiting on an exclusive lock
+     */
+    @Test public void exclusiveLockBlocksUntilReleased() throws Exception {
+        lm.acquireLock(tid1, p0, Permissions.READ_WRITE);
+        LockGrabber reader = new LockGrabber(tid2, Permissions.READ_ONLY);
+        reader.start();
+        Thread.sleep(100);
+        assertFalse(reader.acquired);
+
+        lm.releaseAllLocks(tid1);
+        reader.join();
+        assertTrue(reader.acquired);
+        assertFalse(lm.holdsLock(tid1, p0));
+    }
+
+    /**
+     * Unit test for upgrading a shared lock held by a single transaction
+     */
+    @Test public void upgradeSoleSharer() throws Exception {
+        lm.acquireLock(tid1, p0, Permissions.READ_ONLY);
+        lm.acquireLock(tid1, p0, Permissions.READ_WRITE);
+        LockGrabber reader = new LockGrabber(tid2, Permissions.READ_ONLY);
+        reader.start();
+        Thread.sleep(100);
+        assertFalse(reader.acquired);
+        lm.releaseLock(tid1, p0);
+        reader.join();
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * Unit test for deadlock detection: two readers of the same page both
+     * try to upgrade, and the younger one is aborted right away
+     */
+    @Test(timeout=1000) public void upgradeDeadlockAbortsYoungest() throws Exception {
+        lm.acquireLock(tid1, p0, Permissions.READ_ONLY);
+        lm.acquireLock(tid2, p0, Permissions.READ_ONLY);
+        LockGrabber older = new LockGrabber(tid1, Permissions.READ_WRITE);
+        LockGrabber younger = new LockGrabber(tid2, Permissions.READ_WRITE);
+        older.start();
+        Thread.sleep(50);
+        younger.start();
+        younger.join();
+        assertFalse(younger.acquired);
+
+        // aborting the victim lets the older transaction proceed
+        lm.releaseAllLocks(tid2);
+        older.join();
+        assertTrue(older.acquired);
+        assertEquals(1, lm.getDeadlocksDetected());
+        assertEquals(1, lm.getVictimsAborted());
+    }
+
+    /**
+     * Unit test for deadlock detection with two threads working for one
+     * transaction: when one of them is granted its lock, the edges of the
+     * other still count
+     */
+    @Test(timeout=1000) public void sharedTidKeepsOtherWaiter() throws Exception {
+        PageId p1 = new HeapPageId(-1, 1);
+        lm.acquireLock(tid2, p0, Permissions.READ_WRITE);
+        lm.acquireLock(tid2, p1, Permissions.READ_WRITE);
+        LockGrabber first = new LockGrabber(tid1, p0, Permissions.READ_WRITE);
+        LockGrabber second = new LockGrabber(tid1, p1, Permissions.READ_WRITE);
+        first.start();
+        second.start();
+        Thread.sleep(50);
+        lm.releaseLock(tid2, p1);
+        second.join();
+        assertTrue(second.acquired);
+
+        // tid1 still waits for tid2 through the first thread
+        LockGrabber younger = new LockGrabber(tid2, p1, Permissions.READ_ONLY);
+        younger.start();
+        younger.join();
+        assertFalse(younger.acquired);
+        lm.releaseAllLocks(tid2);
+        first.join();
+        assertTrue(first.acquired);
+    }
+
+    /**
+     * Unit test for deadlock detection when the older transaction closes the
+     * cycle: the younger one is woken up and aborted
+     */
+    @Test(timeout=1000) public void wakesYoungestVictim() throws Exception {
+        lm.acquireLock(tid1, p0, Permissions.READ_ONLY);
+        lm.acquireLock(tid2, p0, Permissions.READ_ONLY);
+        LockGrabber older = new LockGrabber(tid1, Permissions.READ_WRITE);
+        LockGrabber younger = new LockGrabber(tid2, Permissions.READ_WRITE);
+        younger.start();
+        Thread.sleep(50);
+        older.start();
+        younger.join();
+        assertFalse(younger.acquired);
+        lm.releaseAllLocks(tid2);
+        older.join();
+        assertTrue(older.acquired);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
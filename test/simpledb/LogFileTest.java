@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // truncation renames a new log into place, so keep it in the working directory
+        File f = File.createTempFile("log", ".tmp", new File("."));
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    /** Begins and commits transactions on the log on a separate thread. */
+    private class Committer extends Thread {
+        private final int commits;
+        volatile Exception failure = null;
+
+        Committer(int commits) {
+            this.commits = commits;
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < commits; i++) {
+                    TransactionId tid = new TransactionId();
+                    log.logXactionBegin(tid);
+                    log.logCommit(tid);
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+    private void runCommitters(int threads, int commits) throws Exception {
+        Committer[] committers = new Committer[threads];
+        for (int i = 0; i < threads; i++) {
+            committers[i] = new Committer(commits);
+            committers[i].start();
+        }
+        for (Committer c : committers) {
+            c.join();
+            if (c.failure != null)
+                throw c.failure;
+        }
+    }
+
+    /**
+     * Unit test for LogFile.logCommit() without group commit: every commit
+     * forces the log on its own
+     */
+    @Test public void everyCommitForces() throws Exception {
+        runCommitters(4, 10);
+        assertEquals(40, log.getCommitBatches());
+        assertEquals(1, log.getMaxCommitBatchSize());
+        assertTrue(log.getCommitLatencyPercentile(50) > 0);
+    }
+
+    /**
+     * Unit test for LogFile.logCommit() in group commit mode: concurrent
+     * committers share forces
+     */
+    @Test(timeout=10000) public void groupCommitBatches() throws Exception {
+        log.setGroupCommit(true, 2000);
+        runCommitters(8, 10);
+        assertTrue(log.getCommitBatches() < 80);
+        assertTrue(log.getMaxCommitBatchSize() > 1);
+        assertTrue(log.getAverageCommitBatchSize() > 1);
+        assertTrue(log.getCommitLatencyPercentile(99) >= log.getCommitLatencyPercentile(50));
+    }
+
+    /**
+     * Unit test for LogFile.logCommit() in group commit mode across a
+     * checkpoint, which truncates the log
+     */
+    @Test(timeout=10000) public void groupCommitAcrossCheckpoint() throws Exception {
+        log.setGroupCommit(true, 0);
+        Committer committer = new Committer(50);
+        committer.start();
+        for (int i = 0; i < 5; i++)
+            log.logCheckpoint();
+        committer.join();
+        assertEquals(null, committer.failure);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
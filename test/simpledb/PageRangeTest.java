@@ -0,0 +1,74 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageRangeTest extends SimpleDbTestBase {
+
+    /** Checks that ranges cover pages 0 to numPages in order, with sizes differing by at most one */
+    private static void checkBalanced(List<PageRange> ranges, int numPages) {
+        int next = 0, min = Integer.MAX_VALUE, max = 0;
+        for (PageRange r : ranges) {
+            assertEquals(next, r.getStart());
+            next = r.getEnd();
+            min = Math.min(min, r.numPages());
+            max = Math.max(max, r.numPages());
+        }
+        assertEquals(numPages, next);
+        assertTrue(max - min <= 1);
+    }
+
+    @Test public void split() {
+        for (int numPages : new int[] { 1, 7, 100, 1001 }) {
+            for (int n = 1; n <= 9; n++) {
+                List<PageRange> ranges = PageRange.split(numPages, n);
+                assertEquals(Math.min(n, numPages), ranges.size());
+                checkBalanced(ranges, numPages);
+            }
+        }
+    }
+
+    @Test public void splitMinPages() {
+        List<PageRange> ranges = PageRange.split(1000, 8, 256);
+        assertEquals(3, ranges.size());
+        checkBalanced(ranges, 1000);
+        assertEquals(new PageRange(0, 334), ranges.get(0));
+
+        ranges = PageRange.split(100, 8, 256);
+        assertEquals(1, ranges.size());
+        assertEquals(new PageRange(0, 100), ranges.get(0));
+    }
+
+    @Test public void splitEmpty() {
+        List<PageRange> ranges = PageRange.split(0, 4);
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).numPages());
+    }
+
+    @Test public void contains() {
+        PageRange r = new PageRange(3, 5);
+        assertFalse(r.contains(2));
+        assertTrue(r.contains(3));
+        assertTrue(r.contains(4));
+        assertFalse(r.contains(5));
+        try {
+            new PageRange(5, 3);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageRangeTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetchTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 64;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // about 100 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 50000, null, tuples);
+        bp = Database.resetBufferPool(POOL_PAGES);
+        bp.startPrefetcher();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.stopPrefetcher();
+        bp.transactionComplete(tid);
+    }
+
+    private void waitForPrefetched(int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.numPrefetched() < n && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(n, bp.numPrefetched());
+    }
+
+    private void read(int pgNo) throws Exception {
+        bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Two pages in a row start a stream; the window of pages after them is
+     * read ahead, and used by the scan.
+     */
+    @Test public void readAhead() throws Exception {
+        read(0);
+        read(1);
+        waitForPrefetched(Prefetcher.MIN_WINDOW);
+        for (int i = 2; i < 2 + Prefetcher.MIN_WINDOW; i++)
+            read(i);
+        assertEquals(Prefetcher.MIN_WINDOW, bp.getPrefetchHits());
+        assertEquals(0, bp.getPrefetchMisses());
+    }
+
+    /** Random accesses are not read ahead. */
+    @Test public void randomAccess() throws Exception {
+        for (int pgNo : new int[] { 10, 3, 40, 7, 22 })
+            read(pgNo);
+        Thread.sleep(50);
+        assertEquals(0, bp.numPrefetched());
+        assertEquals(0, bp.getPrefetchMisses());
+    }
+
+    /** Pages read ahead never replace dirty pages. */
+    @Test public void noDirtyEviction() throws Exception {
+        Page[] pages = new Page[POOL_PAGES];
+        for (int i = 0; i < POOL_PAGES; i++) {
+            pages[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            pages[i].markDirty(true, tid);
+        }
+        // a sequential pair, but every page is dirty
+        read(POOL_PAGES - 2);
+        read(POOL_PAGES - 1);
+        Thread.sleep(50);
+        assertEquals(0, bp.numPrefetched());
+        for (int i = 0; i < POOL_PAGES; i++)
+            assertSame(pages[i], bp.getPage(tid, pages[i].getId(), Permissions.READ_WRITE));
+    }
+
+    /** A scan with the prefetcher running sees every tuple once. */
+    @Test public void scan() throws Exception {
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId(), "t"), tuples);
+        assertTrue(bp.getPrefetchHits() + bp.getPrefetchMisses() > 0);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetchTest.class);
+    }
+}
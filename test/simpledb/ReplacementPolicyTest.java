@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Evictable ANY = new ReplacementPolicy.Evictable() {
+        public boolean test(PageId pid) {
+            return true;
+        }
+    };
+
+    private static HeapPageId pid(int n) {
+        return new HeapPageId(-1, n);
+    }
+
+    /** Load pages 0..n-1 in order. */
+    private static void load(ReplacementPolicy p, int n) {
+        for (int i = 0; i < n; i++)
+            p.pageLoaded(pid(i));
+    }
+
+    /**
+     * Unit test for LruReplacementPolicy: the least recently used page goes first
+     */
+    @Test public void lruOrder() {
+        ReplacementPolicy p = ReplacementPolicy.Kind.LRU.create(4);
+        load(p, 4);
+        p.pageAccessed(pid(0));
+        assertEquals(pid(1), p.chooseVictim(ANY));
+        p.pageRemoved(pid(1));
+        assertEquals(pid(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: referenced pages get a second chance
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy p = ReplacementPolicy.Kind.CLOCK.create(3);
+        load(p, 3);
+        // the first sweep clears all reference bits and lands back on page 0
+        assertEquals(pid(0), p.chooseVictim(ANY));
+        p.pageRemoved(pid(0));
+        p.pageLoaded(pid(3));
+        p.pageAccessed(pid(1));
+        // page 1 was referenced again, page 2 was not
+        assertEquals(pid(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: a scan does not evict hot pages
+     */
+    @Test public void twoQueueScanResistance() {
+        ReplacementPolicy p = ReplacementPolicy.Kind.TWO_QUEUE.create(8);
+        // page 0 is loaded, evicted and loaded again, so it becomes hot
+        p.pageLoaded(pid(0));
+        p.pageRemoved(pid(0));
+        p.pageLoaded(pid(0));
+        // a scan over many cold pages keeps evicting from the FIFO queue
+        for (int i = 1; i < 100; i++) {
+            p.pageLoaded(pid(i));
+            if (i >= 7) {
+                PageId victim = p.chooseVictim(ANY);
+                assertEquals(false, victim.equals(pid(0)));
+                p.pageRemoved(victim);
+            }
+        }
+    }
+
+    /**
+     * Unit test for the Evictable filter of all policies
+     */
+    @Test public void skipsUnevictable() {
+        final PageId pinned = pid(0);
+        ReplacementPolicy.Evictable notPinned = new ReplacementPolicy.Evictable() {
+            public boolean test(PageId pid) {
+                return !pid.equals(pinned);
+            }
+        };
+        ReplacementPolicy.Evictable none = new ReplacementPolicy.Evictable() {
+            public boolean test(PageId pid) {
+                return false;
+            }
+        };
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy p = kind.create(4);
+            load(p, 4);
+            assertEquals(kind.toString(), pid(1), p.chooseVictim(notPinned));
+            assertNull(kind.toString(), p.chooseVictim(none));
+        }
+    }
+
+    /**
+     * Unit test for nextVictims of all policies: the pages chooseVictim picks
+     * next, in order, without changing what it picks
+     */
+    @Test public void nextVictims() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy p = kind.create(8);
+            load(p, 8);
+            p.pageAccessed(pid(2));
+            List<PageId> next = p.nextVictims(3);
+            assertEquals(kind.toString(), 3, next.size());
+            for (PageId expected : next) {
+                PageId victim = p.chooseVictim(ANY);
+                assertEquals(kind.toString(), expected, victim);
+                p.pageRemoved(victim);
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -100,6 +100,37 @@ public class TableStatsTest extends SimpleDbTestBase {
 		Assert.assertEquals(0, s.estimateTableCardinality(0.0));
 	}
 	
+	/**
+	 * Verify that statistics computed by several threads, each scanning its
+	 * own range of pages, are the same as those computed by one.
+	 */
+	@Test public void parallelStatsTest() throws Exception {
+		HeapFile big = SystemTestUtil.createRandomHeapFile(2, 100000, 1000, null, null);
+		int parallelism = Exchange.getParallelism();
+		TableStats serial, parallel;
+		try {
+			Exchange.setParallelism(1);
+			serial = new TableStats(big.getId(), IO_COST);
+			Exchange.setParallelism(4);
+			parallel = new TableStats(big.getId(), IO_COST);
+		} finally {
+			Exchange.setParallelism(parallelism);
+		}
+		Assert.assertTrue(PageRange.split(big.numPages(), 4, TableStats.MIN_PAGES_PER_SCAN).size() > 1);
+		Assert.assertEquals(100000, parallel.totalTuples());
+		Assert.assertEquals(serial.estimateScanCost(), parallel.estimateScanCost(), 0.0);
+		for (int col = 0; col < 2; col++) {
+			Assert.assertEquals(serial.avgSelectivity(col, Predicate.Op.EQUALS),
+					parallel.avgSelectivity(col, Predicate.Op.EQUALS), 1e-9);
+			for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+				for (int v : new int[] { -1, 0, 250, 500, 999, 1000 }) {
+					Assert.assertEquals(serial.estimateSelectivity(col, op, new IntField(v)),
+							parallel.estimateSelectivity(col, op, new IntField(v)), 1e-9);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Verify that selectivity estimates do something reasonable.
 	 * Don't bother splitting this into N different functions for
@@ -0,0 +1,53 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures random point lookups on a B+ tree through indexIterator with
+ * EQUALS predicates. The buffer pool is much smaller than the tree, so most
+ * lookups read leaf pages from the file; the file itself stays in the page
+ * cache, so the cost of getting a page out of it is measured rather than
+ * disk latency.
+ * <p>
+ * Run with: ant runbench -Dbench=BTreeLookupBenchmark [-Dargs="rows lookups"]
+ */
+public class BTreeLookupBenchmark {
+
+    private static final int POOL_PAGES = 64;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, rows, rows, null, tuples, 0);
+        Random rand = new Random(42);
+
+        System.out.printf("%d rows, %d pages, %d-page pool%n", rows, tree.numPages(), POOL_PAGES);
+        for (int round = 0; round < ROUNDS; round++) {
+            Database.resetBufferPool(POOL_PAGES);
+            TransactionId tid = new TransactionId();
+            long found = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                int key = tuples.get(rand.nextInt(rows)).get(0);
+                DbFileIterator it = tree.indexIterator(tid,
+                        new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+                it.open();
+                while (it.hasNext()) {
+                    it.next();
+                    found++;
+                }
+                it.close();
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            Database.getBufferPool().transactionComplete(tid);
+            System.out.printf("%d lookups, %d tuples: %.0f lookups/s, %.1f us/lookup%n", lookups,
+                    found, lookups / secs, secs * 1e6 / lookups);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the latency of small update transactions over a table ten times
+ * the size of the buffer pool, with and without the background writer.
+ * Each transaction updates one random page and commits; commits do not
+ * write pages, so the pool fills with dirty pages, and without the writer
+ * almost every page miss must write its victim, forcing the log first,
+ * before it can read.
+ * <p>
+ * Run with: ant runbench -Dbench=BackgroundWriterBenchmark [-Dargs="poolPages transactions"]
+ */
+public class BackgroundWriterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        HeapFile table = createTable(poolPages * 10 * 4096 / 8);
+        System.out.println("pool: " + poolPages + " pages, table: " + table.numPages() + " pages");
+        System.out.printf("%-8s %10s %10s %10s %12s %14s%n", "writer", "ms", "mean us",
+                "p99 us", "dirty evict", "written ahead");
+        for (int round = 0; round < 2; round++) {
+            for (boolean writer : new boolean[] { false, true }) {
+                BufferPool bp = Database.resetBufferPool(poolPages);
+                if (writer)
+                    bp.startBackgroundWriter(10, poolPages / 8);
+                Random r = new Random(1);
+                long[] nanos = new long[transactions];
+                long start = System.nanoTime();
+                for (int i = 0; i < transactions; i++) {
+                    long t0 = System.nanoTime();
+                    Transaction t = new Transaction();
+                    t.start();
+                    HeapPage p = (HeapPage) bp.getPage(t.getId(),
+                            new HeapPageId(table.getId(), r.nextInt(table.numPages())),
+                            Permissions.READ_WRITE);
+                    Tuple tup = p.iterator().next();
+                    p.deleteTuple(tup);
+                    p.insertTuple(tup);
+                    p.markDirty(true, t.getId());
+                    t.commit();
+                    nanos[i] = System.nanoTime() - t0;
+                }
+                double ms = (System.nanoTime() - start) / 1e6;
+                bp.stopBackgroundWriter();
+                Arrays.sort(nanos);
+                long sum = 0;
+                for (long n : nanos)
+                    sum += n;
+                System.out.printf("%-8s %10.1f %10.1f %10.1f %12d %14d%n", writer ? "on" : "off",
+                        ms, sum / 1e3 / transactions, nanos[transactions * 99 / 100] / 1e3,
+                        bp.getDirtyEvictions(), bp.getPagesWrittenAhead());
+                Database.getLogFile().logCheckpoint();
+            }
+        }
+    }
+
+    private static HeapFile createTable(int rows) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>(2);
+            t.add(i);
+            t.add(i % 1000);
+            tuples.add(t);
+        }
+        File f = File.createTempFile("updates", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(table, "updates");
+        return table;
+    }
+}
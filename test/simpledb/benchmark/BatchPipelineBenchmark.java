@@ -0,0 +1,109 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the per-row cost of a scan-filter-aggregate pipeline read a
+ * tuple at a time with next() and a batch at a time with nextBatch(). The
+ * table has three int columns and fits in the buffer pool, which is warmed
+ * first, so that only CPU is measured. The pipeline keeps about half of
+ * the rows and sums one column. The sum columns compute the sum in the
+ * benchmark; the Aggregate columns compare merging every tuple into an
+ * IntegerAggregator with the Aggregate operator, which reads batches.
+ * <p>
+ * Run with: ant runbench -Dbench=BatchPipelineBenchmark [-Dargs="rows"]
+ */
+public class BatchPipelineBenchmark {
+
+    private static final int ROUNDS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>(rows);
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>(3);
+            t.add(r.nextInt(100));
+            t.add(r.nextInt(1000));
+            t.add(i);
+            tuples.add(t);
+        }
+        File f = File.createTempFile("pipeline", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 3);
+        tuples = null;
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(table, "bench");
+        Database.resetBufferPool(table.numPages() + 16);
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+
+        System.out.printf("%-10s %10s %10s %10s%n", "pipeline", "rows", "ns/row", "result");
+        for (int round = 0; round < ROUNDS; round++) {
+            TransactionId tid = new TransactionId();
+
+            Filter filter = new Filter(p, new SeqScan(tid, table.getId(), "t"));
+            long start = System.nanoTime();
+            long sum = 0;
+            filter.open();
+            while (filter.hasNext())
+                sum += ((IntField) filter.next().getField(0)).getValue();
+            filter.close();
+            report("tuple sum", rows, start, sum);
+
+            filter = new Filter(p, new SeqScan(tid, table.getId(), "t"));
+            start = System.nanoTime();
+            sum = 0;
+            filter.open();
+            TupleBatch b;
+            while ((b = filter.nextBatch()) != null) {
+                int[] col = b.ints(0);
+                for (int k = 0; k < b.size(); k++)
+                    sum += col[b.row(k)];
+            }
+            filter.close();
+            report("batch sum", rows, start, sum);
+
+            filter = new Filter(p, new SeqScan(tid, table.getId(), "t"));
+            start = System.nanoTime();
+            IntegerAggregator aggr = new IntegerAggregator(0, Type.INT_TYPE, 2, Aggregator.Op.MAX);
+            filter.open();
+            while (filter.hasNext())
+                aggr.mergeTupleIntoGroup(filter.next());
+            filter.close();
+            report("tuple agg", rows, start, count(aggr.iterator()));
+
+            Aggregate agg = new Aggregate(new Filter(p, new SeqScan(tid, table.getId(), "t")),
+                    2, 0, Aggregator.Op.MAX);
+            start = System.nanoTime();
+            agg.open();
+            long groups = 0;
+            while ((b = agg.nextBatch()) != null)
+                groups += b.size();
+            agg.close();
+            report("batch agg", rows, start, groups);
+
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    private static long count(DbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private static void report(String pipeline, int rows, long start, long result) {
+        double ns = (System.nanoTime() - start) / (double) rows;
+        System.out.printf("%-10s %10d %10.1f %10d%n", pipeline, rows, ns, result);
+    }
+}
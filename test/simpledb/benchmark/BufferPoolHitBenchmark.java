@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the latency of BufferPool.getPage on the hit path and on the
+ * evicting miss path for every replacement policy and a range of pool sizes.
+ * With constant-time policies both columns should stay flat as the pool grows.
+ * <p>
+ * Pages are synthesized in memory, so no disk I/O is measured.
+ * Run with: ant runbench -Dbench=BufferPoolHitBenchmark
+ */
+public class BufferPoolHitBenchmark {
+
+    private static final int[] POOL_SIZES = { 256, 1024, 4096, 16384 };
+    private static final int OPS = 2000000;
+
+    /** A heap file whose pages are created empty on every read. */
+    static class InMemoryHeapFile extends HeapFile {
+        InMemoryHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            try {
+                return new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void writePage(Page p) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        HeapFile table = new InMemoryHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "bench");
+        TransactionId tid = new TransactionId();
+
+        System.out.printf("%-10s %8s %12s %12s%n", "policy", "pages", "hit ns/op", "miss ns/op");
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            for (int pages : POOL_SIZES) {
+                BufferPool bp = new BufferPool(pages, kind);
+                for (int i = 0; i < pages; i++)
+                    bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+
+                // warm up, then time random hits over the resident pages
+                hits(bp, tid, table.getId(), pages, OPS / 4);
+                long start = System.nanoTime();
+                hits(bp, tid, table.getId(), pages, OPS);
+                double hitNs = (System.nanoTime() - start) / (double) OPS;
+
+                // cycling over twice as many pages as fit makes every access evict
+                int misses = Math.max(5000, 2 * pages);
+                start = System.nanoTime();
+                for (int i = 0; i < misses; i++)
+                    bp.getPage(tid, new HeapPageId(table.getId(), pages + i % (2 * pages)),
+                            Permissions.READ_ONLY);
+                double missNs = (System.nanoTime() - start) / (double) misses;
+
+                System.out.printf("%-10s %8d %12.1f %12.1f%n", kind, pages, hitNs, missNs);
+            }
+        }
+    }
+
+    private static void hits(BufferPool bp, TransactionId tid, int tableId, int pages, int ops)
+            throws DbException, TransactionAbortedException {
+        Random r = new Random(42);
+        for (int i = 0; i < ops; i++)
+            bp.getPage(tid, new HeapPageId(tableId, r.nextInt(pages)), Permissions.READ_ONLY);
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+
+/**
+ * Measures the commit latency an insert workload sees while another thread
+ * takes a checkpoint every interval. Transactions insert into many tables
+ * in turn, so that many pages are dirty at any time. A sharp checkpoint flushes the buffer
+ * pool under its lock before writing the checkpoint record; a fuzzy one
+ * only records the dirty page table, with the page cleaner writing pages
+ * in the background.
+ * <p>
+ * Run with: ant runbench -Dbench=CheckpointLatencyBenchmark [-Dargs="transactions intervalMillis"]
+ */
+public class CheckpointLatencyBenchmark {
+
+    private static final int TUPLES_PER_TRANSACTION = 4;
+    private static final int TABLES = 100;
+    private static final int POOL_PAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int xacts = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final long interval = args.length > 1 ? Long.parseLong(args[1]) : 100;
+
+        System.out.printf("%-6s %8s %8s %10s %10s %10s %10s%n", "mode", "xacts", "cps",
+                "p50 us", "p99 us", "max us", "cp ms");
+        for (final boolean fuzzy : new boolean[] { false, true }) {
+            Database.reset();
+            final BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+            final LogFile log = Database.getLogFile();
+            int[] tables = new int[TABLES];
+            for (int i = 0; i < TABLES; i++) {
+                File f = File.createTempFile("checkpoint", ".dat");
+                f.deleteOnExit();
+                HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), f, BufferPool.getPageSize(), 2);
+                HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+                Database.getCatalog().addTable(table, "bench" + i);
+                tables[i] = table.getId();
+            }
+            if (fuzzy)
+                bp.startPageCleaner(10, 8);
+
+            final long[] checkpoints = new long[2]; // count, total ns
+            final boolean[] done = new boolean[1];
+            Thread checkpointer = new Thread() {
+                public void run() {
+                    try {
+                        while (true) {
+                            synchronized (done) {
+                                if (!done[0])
+                                    done.wait(interval);
+                                if (done[0])
+                                    return;
+                            }
+                            long start = System.nanoTime();
+                            if (fuzzy) {
+                                log.logCheckpoint();
+                            } else {
+                                synchronized (bp) {
+                                    bp.flushAllPages();
+                                    log.logCheckpoint();
+                                }
+                            }
+                            checkpoints[0]++;
+                            checkpoints[1] += System.nanoTime() - start;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            checkpointer.start();
+
+            long[] latencies = new long[xacts];
+            for (int i = 0; i < xacts; i++) {
+                long start = System.nanoTime();
+                Transaction t = new Transaction();
+                t.start();
+                for (int j = 0; j < TUPLES_PER_TRANSACTION; j++)
+                    bp.insertTuple(t.getId(), tables[i % TABLES], Utility.getHeapTuple(new int[] { i, j }));
+                t.commit();
+                latencies[i] = System.nanoTime() - start;
+            }
+            synchronized (done) {
+                done[0] = true;
+                done.notifyAll();
+            }
+            checkpointer.join();
+            bp.stopPageCleaner();
+
+            Arrays.sort(latencies);
+            System.out.printf("%-6s %8d %8d %10.0f %10.0f %10.0f %10.1f%n", fuzzy ? "fuzzy" : "sharp",
+                    xacts, checkpoints[0], latencies[xacts / 2] / 1e3,
+                    latencies[(int) (xacts * 0.99)] / 1e3, latencies[xacts - 1] / 1e3,
+                    checkpoints[0] == 0 ? 0 : checkpoints[1] / 1e6 / checkpoints[0]);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import simpledb.*;
+
+/**
+ * Measures the throughput of BufferPool.getPage with 1..N threads, each
+ * running its own transaction, in two workloads: random hits on a pool that
+ * holds the whole table, and a table twice the size of the pool whose reads
+ * take readMicros each. Every run is repeated with all calls serialized on
+ * the pool's lock, as they were when getPage was synchronized, for
+ * comparison.
+ * <p>
+ * Run with: ant runbench -Dbench=ConcurrentBufferPoolBenchmark [-Dargs="maxThreads readMicros"]
+ */
+public class ConcurrentBufferPoolBenchmark {
+
+    private static final int POOL_PAGES = 1024;
+    private static final long MILLIS = 1000;
+
+    /** An in-memory heap file whose reads take a fixed time. */
+    static class SlowHeapFile extends BufferPoolHitBenchmark.InMemoryHeapFile {
+        private final long readNanos;
+
+        SlowHeapFile(File f, TupleDesc td, long readNanos) {
+            super(f, td);
+            this.readNanos = readNanos;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            LockSupport.parkNanos(readNanos);
+            return super.readPage(pid);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : Math.max(4, Runtime.getRuntime().availableProcessors());
+        long readMicros = args.length > 1 ? Long.parseLong(args[1]) : 100;
+
+        HeapFile fast = addTable("fast", 0);
+        HeapFile slow = addTable("slow", readMicros * 1000);
+        System.out.println("cpus: " + Runtime.getRuntime().availableProcessors() + ", pool: "
+                + POOL_PAGES + " pages, reads: " + readMicros + " us");
+        System.out.printf("%-8s %8s %16s %16s%n", "workload", "threads", "pool lock ops/s",
+                "concurrent ops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.printf("%-8s %8d %16.0f %16.0f%n", "hits", threads,
+                    run(fast, POOL_PAGES, threads, true), run(fast, POOL_PAGES, threads, false));
+        }
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.printf("%-8s %8d %16.0f %16.0f%n", "misses", threads,
+                    run(slow, 2 * POOL_PAGES, threads, true), run(slow, 2 * POOL_PAGES, threads, false));
+        }
+    }
+
+    private static HeapFile addTable(String name, long readNanos) throws Exception {
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        HeapFile table = new SlowHeapFile(f, Utility.getTupleDesc(2), readNanos);
+        Database.getCatalog().addTable(table, name);
+        return table;
+    }
+
+    /** @return getPage calls per second over all threads */
+    private static double run(final HeapFile table, final int pages, int threads,
+            final boolean serialized) throws Exception {
+        final BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < Math.min(pages, POOL_PAGES); i++)
+            bp.getPage(warm, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(warm);
+
+        final long deadline = System.nanoTime() + MILLIS * 1000000;
+        final long[] ops = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int me = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(me);
+                    TransactionId tid = new TransactionId();
+                    try {
+                        long n = 0;
+                        while ((n & 63) != 0 || System.nanoTime() < deadline) {
+                            HeapPageId pid = new HeapPageId(table.getId(), r.nextInt(pages));
+                            if (serialized) {
+                                synchronized (bp) {
+                                    bp.getPage(tid, pid, Permissions.READ_ONLY);
+                                }
+                            } else {
+                                bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            }
+                            n++;
+                        }
+                        ops[me] = n;
+                        bp.transactionComplete(tid);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += ops[t];
+        }
+        return total / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures commit throughput and latency of LogFile.logCommit with and
+ * without group commit, as the number of concurrently committing threads
+ * grows. Each transaction logs a BEGIN and a COMMIT record only, so the
+ * log force is the whole cost of a commit.
+ * <p>
+ * Run with: ant runbench -Dbench=GroupCommitBenchmark [-Dargs="commitsPerThread"]
+ */
+public class GroupCommitBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+    // group commit window in microseconds; -1 means group commit is off
+    private static final long[] WINDOWS = { -1, 0, 200 };
+
+    public static void main(String[] args) throws Exception {
+        final int commits = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        System.out.printf("%7s %8s %10s %8s %9s %9s %9s%n", "threads", "window",
+                "commits/s", "batch", "p50 us", "p95 us", "p99 us");
+        for (long window : WINDOWS) {
+            for (int threads : THREADS) {
+                File f = File.createTempFile("log", ".tmp", new File("."));
+                f.deleteOnExit();
+                final LogFile log = new LogFile(f);
+                log.setGroupCommit(window >= 0, Math.max(0, window));
+
+                Thread[] workers = new Thread[threads];
+                for (int i = 0; i < threads; i++) {
+                    workers[i] = new Thread() {
+                        public void run() {
+                            try {
+                                for (int j = 0; j < commits; j++) {
+                                    TransactionId tid = new TransactionId();
+                                    log.logXactionBegin(tid);
+                                    log.logCommit(tid);
+                                }
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    };
+                }
+                long start = System.nanoTime();
+                for (Thread w : workers)
+                    w.start();
+                for (Thread w : workers)
+                    w.join();
+                double secs = (System.nanoTime() - start) / 1e9;
+
+                System.out.printf("%7d %8s %10.0f %8.1f %9.0f %9.0f %9.0f%n", threads,
+                        window < 0 ? "off" : Long.toString(window), threads * commits / secs,
+                        log.getAverageCommitBatchSize(), log.getCommitLatencyPercentile(50),
+                        log.getCommitLatencyPercentile(95), log.getCommitLatencyPercentile(99));
+                f.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of inserting into a heap file whose pages are all full,
+ * which is where looking for free space used to read the whole table for
+ * every tuple. Each transaction inserts a few tuples and commits.
+ * <p>
+ * Run with: ant runbench -Dbench=HeapInsertBenchmark [-Dargs="pages transactions"]
+ */
+public class HeapInsertBenchmark {
+
+    private static final int TUPLES_PER_TRANSACTION = 4;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int xacts = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        File f = createFullTable(pages);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "bench");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < xacts; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = 0; j < TUPLES_PER_TRANSACTION; j++)
+                Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                        Utility.getHeapTuple(new int[] { i, j }));
+            t.commit();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d full pages, %d inserts: %.1f us/insert, %d pages after%n", pages,
+                xacts * TUPLES_PER_TRANSACTION, secs * 1e6 / (xacts * TUPLES_PER_TRANSACTION),
+                table.numPages());
+        table.close();
+    }
+
+    // a heap file of full pages, all copies of one encoded page
+    private static File createFullTable(int pages) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int perPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        for (int i = 0; i < perPage; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(-i);
+            tuples.add(t);
+        }
+        File one = File.createTempFile("page", ".dat");
+        one.deleteOnExit();
+        HeapFileEncoder.convert(tuples, one, BufferPool.getPageSize(), 2);
+        byte[] page = java.nio.file.Files.readAllBytes(one.toPath());
+
+        File f = File.createTempFile("insert", ".dat");
+        f.deleteOnExit();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        for (int i = 0; i < pages; i++)
+            out.write(page, 0, BufferPool.getPageSize());
+        out.close();
+        return f;
+    }
+}
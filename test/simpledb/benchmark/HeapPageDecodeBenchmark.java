@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of turning page bytes into a HeapPage and reading one
+ * int column of every tuple on it, in time and in bytes allocated. The
+ * page is full, with eight int columns per tuple. The load column only
+ * constructs pages; the iterator column also sums the first column
+ * through Tuple.getField; the getInt column sums it with HeapPage.getInt.
+ * <p>
+ * Run with: ant runbench -Dbench=HeapPageDecodeBenchmark [-Dargs="pages"]
+ */
+public class HeapPageDecodeBenchmark {
+
+    private static final int COLUMNS = 8;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        File f = File.createTempFile("decode", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), f, BufferPool.getPageSize(), COLUMNS);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(table, "bench");
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        HeapPage full = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; full.getNumEmptySlots() > 0; i++)
+            full.insertTuple(Utility.getHeapTuple(i, COLUMNS));
+        byte[] data = full.getPageData();
+
+        System.out.printf("%-9s %8s %10s %12s%n", "read", "pages", "us/page", "bytes/page");
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int mode = 0; mode < 3; mode++) {
+                long bytes = allocatedBytes();
+                long start = System.nanoTime();
+                for (int p = 0; p < pages; p++) {
+                    HeapPage page = new HeapPage(pid, data);
+                    if (mode == 1) {
+                        Iterator<Tuple> it = page.iterator();
+                        while (it.hasNext())
+                            sink += ((IntField) it.next().getField(0)).getValue();
+                    } else if (mode == 2) {
+                        for (int slot = 0; slot < page.getNumSlots(); slot++) {
+                            if (page.isSlotUsed(slot))
+                                sink += page.getInt(slot, 0);
+                        }
+                    }
+                }
+                double us = (System.nanoTime() - start) / 1e3 / pages;
+                bytes = allocatedBytes() - bytes;
+                System.out.printf("%-9s %8d %10.2f %12d%n",
+                        new String[] { "load", "iterator", "getInt" }[mode], pages, us, bytes / pages);
+            }
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
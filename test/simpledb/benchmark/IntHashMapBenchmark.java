@@ -0,0 +1,116 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.*;
+
+/**
+ * Compares the hash tables of hash joins and aggregates on int keys: the
+ * HashMap by Field that joins used, the HashMap by Integer.toString that
+ * aggregates used, and IntHashMap. The join rows build a table from keys
+ * tuples, one per distinct key, then probe it with probes tuples, half of
+ * which match; the group rows add probes rows into keys/16 groups.
+ * Throughput is in millions of rows per second.
+ * <p>
+ * Run with: ant runbench -Dbench=IntHashMapBenchmark [-Dargs="keys probes"]
+ */
+public class IntHashMapBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int probes = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+
+        Tuple[] build = new Tuple[keys];
+        for (int i = 0; i < keys; i++)
+            build[i] = Utility.getHeapTuple(new int[] { i * 2, i });
+        int[] probeKeys = new int[probes];
+        java.util.Random rand = new java.util.Random(0);
+        for (int i = 0; i < probes; i++)
+            probeKeys[i] = rand.nextInt(2 * keys);
+
+        System.out.printf("%-12s %10s %10s%n", "table", "build M/s", "probe M/s");
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            // join on Field keys
+            long start = System.nanoTime();
+            HashMap<Field, ArrayList<Tuple>> fields = new HashMap<Field, ArrayList<Tuple>>();
+            for (Tuple t : build) {
+                ArrayList<Tuple> l = fields.get(t.getField(0));
+                if (l == null) {
+                    l = new ArrayList<Tuple>();
+                    fields.put(t.getField(0), l);
+                }
+                l.add(t);
+            }
+            long built = System.nanoTime();
+            for (int i = 0; i < probes; i++) {
+                // as probing a batch column, which makes a Field per row
+                ArrayList<Tuple> l = fields.get(new IntField(probeKeys[i]));
+                if (l != null)
+                    sink += l.size();
+            }
+            report("Field", keys, probes, start, built, System.nanoTime());
+
+            // join on int keys
+            start = System.nanoTime();
+            IntHashMap<ArrayList<Tuple>> ints = new IntHashMap<ArrayList<Tuple>>();
+            for (Tuple t : build) {
+                int k = ((IntField) t.getField(0)).getValue();
+                ArrayList<Tuple> l = ints.get(k);
+                if (l == null) {
+                    l = new ArrayList<Tuple>();
+                    ints.put(k, l);
+                }
+                l.add(t);
+            }
+            built = System.nanoTime();
+            for (int i = 0; i < probes; i++) {
+                ArrayList<Tuple> l = ints.get(probeKeys[i]);
+                if (l != null)
+                    sink += l.size();
+            }
+            report("IntHashMap", keys, probes, start, built, System.nanoTime());
+
+            // group by string keys
+            int groups = Math.max(1, keys / 16);
+            start = System.nanoTime();
+            HashMap<String, int[]> strings = new HashMap<String, int[]>();
+            for (int i = 0; i < probes; i++) {
+                String k = Integer.toString(probeKeys[i] % groups);
+                int[] count = strings.get(k);
+                if (count == null) {
+                    count = new int[1];
+                    strings.put(k, count);
+                }
+                count[0]++;
+            }
+            report("group String", 0, probes, start, start, System.nanoTime());
+            sink += strings.size();
+
+            // group by int keys
+            start = System.nanoTime();
+            IntHashMap<int[]> counts = new IntHashMap<int[]>();
+            for (int i = 0; i < probes; i++) {
+                int k = probeKeys[i] % groups;
+                int[] count = counts.get(k);
+                if (count == null) {
+                    count = new int[1];
+                    counts.put(k, count);
+                }
+                count[0]++;
+            }
+            report("group int", 0, probes, start, start, System.nanoTime());
+            sink += counts.size();
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static void report(String name, int keys, int probes, long start, long built, long end) {
+        String b = keys == 0 ? "-" : String.format("%.1f", keys * 1e3 / (built - start));
+        System.out.printf("%-12s %10s %10.1f%n", name, b, probes * 1e3 / (end - built));
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures how many log bytes an OLTP-style insert workload writes per
+ * transaction with DELTA records and with full UPDATE page images. Every
+ * transaction inserts a few tuples into a heap file and commits.
+ * <p>
+ * Run with: ant runbench -Dbench=LogVolumeBenchmark [-Dargs="transactions"]
+ */
+public class LogVolumeBenchmark {
+
+    private static final int TUPLES_PER_TRANSACTION = 4;
+
+    public static void main(String[] args) throws Exception {
+        int xacts = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        System.out.printf("%-8s %8s %12s %14s %10s%n", "records", "xacts", "log KB",
+                "bytes/xact", "xacts/s");
+        for (boolean delta : new boolean[] { false, true }) {
+            File f = File.createTempFile("volume", ".dat");
+            f.deleteOnExit();
+            HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), f, BufferPool.getPageSize(), 2);
+            Database.reset();
+            Database.getLogFile().setDeltaLogging(delta);
+            HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(table, "bench");
+
+            long start = System.nanoTime();
+            for (int i = 0; i < xacts; i++) {
+                Transaction t = new Transaction();
+                t.start();
+                for (int j = 0; j < TUPLES_PER_TRANSACTION; j++)
+                    Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                            Utility.getHeapTuple(new int[] { i, j }));
+                t.commit();
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            long logBytes = new File("log").length();
+
+            System.out.printf("%-8s %8d %12d %14.0f %10.0f%n", delta ? "DELTA" : "UPDATE", xacts,
+                    logBytes / 1024, logBytes / (double) xacts, xacts / secs);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures the bandwidth of appending UPDATE records to the log with
+ * LogFile.logWrite, forcing the log once at the end, so that the cost of
+ * assembling and writing records rather than fsync is measured.
+ * <p>
+ * Run with: ant runbench -Dbench=LogWriteBenchmark [-Dargs="records"]
+ */
+public class LogWriteBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        File data = File.createTempFile("table", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), data, BufferPool.getPageSize(), 2);
+        HeapFile table = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "bench");
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+
+        for (int round = 0; round < 3; round++) {
+            File f = File.createTempFile("log", ".tmp", new File("."));
+            f.deleteOnExit();
+            LogFile log = new LogFile(f);
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < records; i++)
+                log.logWrite(tid, page, page);
+            log.force();
+            double secs = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%d UPDATE records, %.1f MB: %.0f records/s, %.1f MB/s%n", records,
+                    f.length() / 1e6, records / secs, f.length() / 1e6 / secs);
+            f.delete();
+        }
+    }
+}
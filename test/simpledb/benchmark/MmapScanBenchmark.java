@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Compares the scan throughput of a heap file read through its file channel
+ * with the same file served from a memory mapping. The raw columns read
+ * every page with HeapFile.readPage; the scan columns run a SeqScan through
+ * a buffer pool much smaller than the table. The file is read once first,
+ * so that it is in the page cache and no disk I/O is measured.
+ * <p>
+ * Run with: ant runbench -Dbench=MmapScanBenchmark [-Dargs="pages"]
+ */
+public class MmapScanBenchmark {
+
+    private static final int POOL_PAGES = 256;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        File f = createTable(pages);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "bench");
+
+        System.out.printf("%-8s %8s %12s %10s %12s %10s%n", "reads", "pages", "raw pages/s",
+                "raw MB/s", "scan pages/s", "scan MB/s");
+        for (int round = 0; round < ROUNDS; round++) {
+            for (boolean mmap : new boolean[] { false, true }) {
+                table.setMemoryMapped(mmap);
+                long start = System.nanoTime();
+                for (int i = 0; i < pages; i++)
+                    table.readPage(new HeapPageId(table.getId(), i));
+                double raw = (System.nanoTime() - start) / 1e9;
+
+                Database.resetBufferPool(POOL_PAGES);
+                TransactionId tid = new TransactionId();
+                SeqScan scan = new SeqScan(tid, table.getId(), "");
+                start = System.nanoTime();
+                scan.open();
+                while (scan.hasNext())
+                    scan.next();
+                scan.close();
+                double seq = (System.nanoTime() - start) / 1e9;
+                Database.getBufferPool().transactionComplete(tid);
+
+                double mb = pages * (double) BufferPool.getPageSize() / 1e6;
+                System.out.printf("%-8s %8d %12.0f %10.1f %12.0f %10.1f%n", mmap ? "mmap" : "channel",
+                        pages, pages / raw, mb / raw, pages / seq, mb / seq);
+            }
+        }
+        table.close();
+    }
+
+    // a heap file of full pages, all copies of one encoded page
+    private static File createTable(int pages) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int perPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        for (int i = 0; i < perPage; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(-i);
+            tuples.add(t);
+        }
+        File one = File.createTempFile("page", ".dat");
+        one.deleteOnExit();
+        HeapFileEncoder.convert(tuples, one, BufferPool.getPageSize(), 2);
+        byte[] page = java.nio.file.Files.readAllBytes(one.toPath());
+
+        File f = File.createTempFile("scan", ".dat");
+        f.deleteOnExit();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        for (int i = 0; i < pages; i++)
+            out.write(page, 0, BufferPool.getPageSize());
+        out.close();
+        return f;
+    }
+}
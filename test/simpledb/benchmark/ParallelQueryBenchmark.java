@@ -0,0 +1,94 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures how a grouped aggregate and an equi-join over a large heap file
+ * scale with the number of partitions the planner splits the scan into.
+ * Both queries are planned by LogicalPlan with parallel plans enabled and
+ * Exchange.setParallelism set to each thread count in turn; a thread count of 1 gives the serial plan.
+ * The tables fit in the buffer pool, which is warmed first, so that only
+ * CPU is measured. The speedup can be at most the number of processors.
+ * <p>
+ * Run with: ant runbench -Dbench=ParallelQueryBenchmark [-Dargs="rows maxThreads"]
+ */
+public class ParallelQueryBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Math.max(4, Runtime.getRuntime().availableProcessors());
+
+        LogicalPlan.setParallelPlans(true);
+        HeapFile big = createTable("big", rows, 3);
+        HeapFile small = createTable("small", 1000, 2);
+        Database.resetBufferPool(big.numPages() + small.numPages() + 16);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("big", new TableStats(big.getId(), 1));
+        stats.put("small", new TableStats(small.getId(), 1));
+        System.out.println("processors: " + Runtime.getRuntime().availableProcessors()
+                + ", pages: " + big.numPages());
+
+        System.out.printf("%-10s %8s %10s %10s %10s%n", "query", "threads", "ms", "speedup", "rows");
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int q = 0; q < 2; q++) {
+                double serial = 0;
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    Exchange.setParallelism(threads);
+                    TransactionId tid = new TransactionId();
+                    LogicalPlan lp = new LogicalPlan();
+                    lp.addScan(big.getId(), "big");
+                    lp.addFilter("big.f1", Predicate.Op.LESS_THAN, "500");
+                    if (q == 0) {
+                        lp.addAggregate("sum", "big.f2", "big.f1");
+                        lp.addProjectField("big.f1", null);
+                        lp.addProjectField("big.f2", "sum");
+                    } else {
+                        lp.addScan(small.getId(), "small");
+                        lp.addJoin("small.f0", "big.f0", Predicate.Op.EQUALS);
+                        lp.addProjectField("*", null);
+                    }
+                    DbIterator plan = lp.physicalPlan(tid, stats, false);
+                    long start = System.nanoTime();
+                    long n = 0;
+                    plan.open();
+                    while (plan.hasNext()) {
+                        plan.next();
+                        n++;
+                    }
+                    plan.close();
+                    double ms = (System.nanoTime() - start) / 1e6;
+                    Database.getBufferPool().transactionComplete(tid);
+                    if (threads == 1)
+                        serial = ms;
+                    System.out.printf("%-10s %8d %10.1f %10.2f %10d%n",
+                            q == 0 ? "aggregate" : "join", threads, ms, serial / ms, n);
+                }
+            }
+        }
+    }
+
+    private static HeapFile createTable(String name, int rows, int columns) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>(rows);
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>(columns);
+            for (int j = 0; j < columns; j++)
+                t.add(r.nextInt(j == 0 ? 100000 : 1000));
+            tuples.add(t);
+        }
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), columns);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(columns, "f"));
+        Database.getCatalog().addTable(table, name);
+        return table;
+    }
+}
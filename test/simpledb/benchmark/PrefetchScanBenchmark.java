@@ -0,0 +1,95 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import simpledb.*;
+
+/**
+ * Measures a cold sequential scan with and without the BufferPool
+ * prefetcher. The table is read through a HeapFile that waits a fixed time
+ * on every page read, standing in for a device the operating system does
+ * not cache, so that the overlap of reads and scan work is visible even when
+ * the file is in the page cache. Each scan starts from an empty pool.
+ * <p>
+ * Run with: ant runbench -Dbench=PrefetchScanBenchmark [-Dargs="rows readMicros"]
+ */
+public class PrefetchScanBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final int POOL_PAGES = 1000;
+
+    /** A HeapFile whose page reads take at least readMicros */
+    static class SlowHeapFile extends HeapFile {
+        private final long readNanos;
+
+        SlowHeapFile(File f, TupleDesc td, long readMicros) {
+            super(f, td);
+            this.readNanos = readMicros * 1000;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            long until = System.nanoTime() + readNanos;
+            Page p = super.readPage(pid);
+            long left;
+            while ((left = until - System.nanoTime()) > 0)
+                LockSupport.parkNanos(left);
+            return p;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        long readMicros = args.length > 1 ? Long.parseLong(args[1]) : 200;
+
+        HeapFile table = createTable(rows, readMicros);
+        System.out.println("pages: " + table.numPages() + ", read: " + readMicros + " us");
+        System.out.printf("%-10s %10s %10s %10s %10s %10s%n",
+                "prefetch", "ms", "pages/s", "hits", "misses", "wasted");
+        for (int round = 0; round < ROUNDS; round++) {
+            for (boolean prefetch : new boolean[] { false, true }) {
+                BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+                if (prefetch)
+                    bp.startPrefetcher();
+                TransactionId tid = new TransactionId();
+                SeqScan scan = new SeqScan(tid, table.getId(), "t");
+                long start = System.nanoTime();
+                long n = 0;
+                scan.open();
+                while (scan.hasNext()) {
+                    scan.next();
+                    n++;
+                }
+                scan.close();
+                double ms = (System.nanoTime() - start) / 1e6;
+                bp.stopPrefetcher();
+                bp.transactionComplete(tid);
+                System.out.printf("%-10s %10.1f %10.0f %10d %10d %10d%n", prefetch ? "on" : "off",
+                        ms, table.numPages() / (ms / 1000), bp.getPrefetchHits(),
+                        bp.getPrefetchMisses(), bp.getPrefetchWasted());
+                if (n != rows)
+                    throw new RuntimeException("scanned " + n + " of " + rows + " rows");
+            }
+        }
+    }
+
+    private static HeapFile createTable(int rows, long readMicros) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>(rows);
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>(2);
+            t.add(i);
+            t.add(r.nextInt(1000));
+            tuples.add(t);
+        }
+        File f = File.createTempFile("prefetch", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile table = new SlowHeapFile(f, Utility.getTupleDesc(2, "f"), readMicros);
+        Database.getCatalog().addTable(table, "t");
+        return table;
+    }
+}
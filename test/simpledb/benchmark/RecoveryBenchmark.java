@@ -0,0 +1,60 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures the time LogFile.recover() takes to restart the database after a
+ * crash, as a function of the number of logged transactions and of how often
+ * a checkpoint was taken. Every transaction inserts one tuple and commits
+ * without forcing its page, so the whole log tail after the last checkpoint
+ * has to be replayed.
+ * <p>
+ * Run with: ant runbench -Dbench=RecoveryBenchmark
+ */
+public class RecoveryBenchmark {
+
+    private static final int[] TRANSACTIONS = { 250, 1000, 4000 };
+    // 0 means no checkpoint at all; otherwise the tail after the last
+    // checkpoint holds interval transactions
+    private static final int[] CHECKPOINT_INTERVALS = { 0, 500, 100 };
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%8s %10s %12s %12s%n", "xacts", "cp every", "log KB", "recover ms");
+        for (int xacts : TRANSACTIONS) {
+            for (int interval : CHECKPOINT_INTERVALS) {
+                File f = File.createTempFile("recovery", ".dat");
+                f.deleteOnExit();
+                TupleDesc td = Utility.getTupleDesc(2);
+                HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), f,
+                        BufferPool.getPageSize(), 2);
+
+                Database.reset();
+                HeapFile table = new HeapFile(f, td);
+                Database.getCatalog().addTable(table, "bench");
+                for (int i = 1; i <= xacts; i++) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                            Utility.getHeapTuple(new int[] { i, i }));
+                    t.commit();
+                    if (interval > 0 && i % interval == 0 && i < xacts)
+                        Database.getLogFile().logCheckpoint();
+                }
+                long logBytes = new File("log").length();
+
+                // crash: the buffer pool is lost, the log and data file stay
+                Database.reset();
+                Database.getCatalog().addTable(new HeapFile(f, td), "bench");
+                long start = System.nanoTime();
+                Database.getLogFile().recover();
+                double ms = (System.nanoTime() - start) / 1e6;
+
+                System.out.printf("%8d %10s %12d %12.1f%n", xacts,
+                        interval == 0 ? "-" : Integer.toString(interval), logBytes / 1024, ms);
+            }
+        }
+    }
+}
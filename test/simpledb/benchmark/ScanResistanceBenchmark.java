@@ -0,0 +1,85 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the hit rate of index lookups that run alongside full scans of a
+ * table four times the size of the buffer pool, with and without scan
+ * rings. Each round runs a batch of lookups of random keys of a B+ tree
+ * that fits in the pool, then one reporting scan; the hit rate is that of
+ * the lookups of all rounds but the first.
+ * <p>
+ * Run with: ant runbench -Dbench=ScanResistanceBenchmark [-Dargs="poolPages lookups rounds"]
+ */
+public class ScanResistanceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        // an index of about a third of the pool
+        int indexRows = poolPages * 4096 / 8 / 3;
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, indexRows, null, null, 0);
+        HeapFile big = createTable(poolPages * 4 * 4096 / 8);
+        System.out.println("pool: " + poolPages + " pages, index: " + index.numPages()
+                + " pages, table: " + big.numPages() + " pages");
+        System.out.printf("%-8s %12s %12s %12s %12s%n", "rings", "lookup hits", "lookup miss",
+                "hit rate", "scan ms");
+
+        for (boolean rings : new boolean[] { false, true }) {
+            BufferPool bp = Database.resetBufferPool(poolPages);
+            bp.setScanRings(rings);
+            Random r = new Random(1);
+            long hits = 0, misses = 0, scanNanos = 0;
+            for (int round = 0; round <= rounds; round++) {
+                TransactionId tid = new TransactionId();
+                long h = bp.getHits(), m = bp.getMisses();
+                for (int i = 0; i < lookups; i++) {
+                    DbFileIterator it = index.indexIterator(tid, new IndexPredicate(
+                            Predicate.Op.EQUALS, new IntField(r.nextInt(BTreeUtility.MAX_RAND_VALUE))));
+                    it.open();
+                    while (it.hasNext())
+                        it.next();
+                    it.close();
+                }
+                if (round > 0) {
+                    hits += bp.getHits() - h;
+                    misses += bp.getMisses() - m;
+                }
+
+                long start = System.nanoTime();
+                SeqScan scan = new SeqScan(tid, big.getId(), "t");
+                scan.open();
+                while (scan.hasNext())
+                    scan.next();
+                scan.close();
+                scanNanos += System.nanoTime() - start;
+                bp.transactionComplete(tid);
+            }
+            System.out.printf("%-8s %12d %12d %11.1f%% %12.1f%n", rings ? "on" : "off", hits,
+                    misses, 100.0 * hits / (hits + misses), scanNanos / 1e6 / (rounds + 1));
+        }
+    }
+
+    private static HeapFile createTable(int rows) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>(rows);
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>(2);
+            t.add(i);
+            t.add(r.nextInt(1000));
+            tuples.add(t);
+        }
+        File f = File.createTempFile("report", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(table, "report");
+        return table;
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that reading operators a batch at a time returns the same rows as
+ * reading them a tuple at a time.
+ */
+public class BatchTest extends SimpleDbTestBase {
+
+    private static ArrayList<ArrayList<Integer>> readTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return rows;
+    }
+
+    /** Reads op a tuple at a time, then a batch at a time, and compares. */
+    private static void validateBatches(DbIterator op)
+            throws DbException, TransactionAbortedException, IOException {
+        validateBatches(op, op);
+    }
+
+    /** Reads op a tuple at a time and same a batch at a time, and compares. */
+    private static void validateBatches(DbIterator op, DbIterator same)
+            throws DbException, TransactionAbortedException, IOException {
+        ArrayList<ArrayList<Integer>> expected = readTuples(op);
+        SystemTestUtil.matchTuples(new BatchTupleIterator((BatchIterator) same), expected);
+    }
+
+    @Test public void scan() throws Exception {
+        for (int rows : new int[] { 0, 1, 1023, 1024, 1025, 5000 }) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(3, rows, null, tuples);
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, f.getId(), "t");
+            SystemTestUtil.matchTuples(new BatchTupleIterator(scan), tuples);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    @Test public void filterAndProject() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Filter filter = new Filter(new Predicate(1, op, new IntField(500)),
+                    new SeqScan(tid, f.getId(), "t"));
+            validateBatches(filter);
+        }
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(333)),
+                new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(333)),
+                        new SeqScan(tid, f.getId(), "t")));
+        validateBatches(new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A filter over an operator that cannot produce batches itself. */
+    @Test public void adapter() throws Exception {
+        TupleIterator child = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2)), child);
+        filter.open();
+        TupleBatch b = filter.nextBatch();
+        assertEquals(4, b.numRows());
+        assertEquals(3, b.size());
+        assertEquals(5, b.getInt(0, b.row(1)));
+        assertEquals(8, b.getInt(1, b.row(2)));
+        assertNull(filter.nextBatch());
+        filter.close();
+    }
+
+    @Test public void aggregate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 20, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(5));
+        // an aggregate can only be opened once
+        validateBatches(new Aggregate(new Filter(p, new SeqScan(tid, f.getId(), "t")), 1, 0, Aggregator.Op.SUM),
+                new Aggregate(new Filter(p, new SeqScan(tid, f.getId(), "t")), 1, 0, Aggregator.Op.SUM));
+        validateBatches(new Aggregate(new SeqScan(tid, f.getId(), "t"), 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT),
+                new Aggregate(new SeqScan(tid, f.getId(), "t"), 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void hashJoin() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 3000, 500, null, null);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+        validateBatches(join);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchTest.class);
+    }
+}
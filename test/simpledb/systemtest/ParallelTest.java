@@ -0,0 +1,187 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that Exchange operators return the same rows as the serial plans
+ * they replace, and that the planner uses them for large heap files.
+ */
+public class ParallelTest extends SimpleDbTestBase {
+
+    /** Enough rows of two int columns for about 600 pages */
+    private static final int ROWS = 300000;
+
+    private int parallelism;
+
+    @Before public void saveParallelism() {
+        parallelism = Exchange.getParallelism();
+        LogicalPlan.setParallelPlans(true);
+    }
+
+    @After public void restoreParallelism() {
+        Exchange.setParallelism(parallelism);
+        LogicalPlan.setParallelPlans(false);
+    }
+
+    private static ArrayList<ArrayList<Integer>> readTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return rows;
+    }
+
+    private static boolean hasExchange(DbIterator it) {
+        if (it instanceof Exchange)
+            return true;
+        if (it instanceof Operator) {
+            for (DbIterator child : ((Operator) it).getChildren()) {
+                if (hasExchange(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Test public void gather() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        TransactionId tid = new TransactionId();
+        List<PageRange> ranges = PageRange.split(f.numPages(), 4);
+        DbIterator[] parts = new DbIterator[ranges.size()];
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = new SeqScan(tid, f.getId(), "t", ranges.get(i));
+        Gather gather = new Gather(parts);
+        SystemTestUtil.matchTuples(gather, tuples);
+
+        // rewind part way through
+        gather.open();
+        for (int i = 0; i < 1000; i++)
+            gather.next();
+        gather.rewind();
+        int count = 0;
+        while (gather.hasNext()) {
+            gather.next();
+            count++;
+        }
+        gather.close();
+        assertEquals(tuples.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void gatherError() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        TransactionId tid = new TransactionId();
+        DbIterator bad = new Filter(new Predicate(5, Predicate.Op.EQUALS, new IntField(0)),
+                new SeqScan(tid, f.getId(), "t"));
+        Gather gather = new Gather(new DbIterator[] { new SeqScan(tid, f.getId(), "t"), bad });
+        gather.open();
+        try {
+            while (gather.hasNext())
+                gather.next();
+            fail("expected exception");
+        } catch (RuntimeException e) {
+            // the worker's exception is thrown on the calling thread
+        }
+        gather.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static DbIterator aggregatePlan(TransactionId tid, HeapFile f,
+            HashMap<String, TableStats> stats, String op, boolean grouped)
+            throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "100");
+        lp.addAggregate(op, "t.c1", grouped ? "t.c0" : null);
+        if (grouped)
+            lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", op);
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    @Test public void aggregate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null, "c");
+        Database.getCatalog().addTable(f, "parallel_agg");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("parallel_agg", new TableStats(f.getId(), 1));
+        TransactionId tid = new TransactionId();
+        for (String op : new String[] { "count", "sum", "min", "max", "avg" }) {
+            for (boolean grouped : new boolean[] { false, true }) {
+                Exchange.setParallelism(1);
+                DbIterator serial = aggregatePlan(tid, f, stats, op, grouped);
+                assertFalse(hasExchange(serial));
+                ArrayList<ArrayList<Integer>> expected = readTuples(serial);
+
+                Exchange.setParallelism(4);
+                DbIterator parallel = aggregatePlan(tid, f, stats, op, grouped);
+                assertTrue(hasExchange(parallel));
+                assertEquals(serial.getTupleDesc(), parallel.getTupleDesc());
+                SystemTestUtil.matchTuples(parallel, expected);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static DbIterator joinPlan(TransactionId tid, HashMap<String, TableStats> stats,
+            HeapFile big, HeapFile small) throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        // the join optimizer looks tables up by alias
+        lp.addScan(big.getId(), "parallel_big");
+        lp.addScan(small.getId(), "parallel_small");
+        lp.addFilter("parallel_big.c1", Predicate.Op.LESS_THAN, "500");
+        lp.addJoin("parallel_big.c0", "parallel_small.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    @Test public void join() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null, "c");
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 50, 1000, null, null, "c");
+        Database.getCatalog().addTable(big, "parallel_big");
+        Database.getCatalog().addTable(small, "parallel_small");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("parallel_big", new TableStats(big.getId(), 1));
+        stats.put("parallel_small", new TableStats(small.getId(), 1));
+        TransactionId tid = new TransactionId();
+
+        Exchange.setParallelism(1);
+        ArrayList<ArrayList<Integer>> expected = readTuples(joinPlan(tid, stats, big, small));
+        Exchange.setParallelism(4);
+        DbIterator parallel = joinPlan(tid, stats, big, small);
+        assertTrue(hasExchange(parallel));
+        SystemTestUtil.matchTuples(parallel, expected);
+
+        // probe partitions of the big table directly, with a build side
+        // larger than one part of the hash table
+        List<PageRange> ranges = PageRange.split(big.numPages(), 3);
+        DbIterator[] parts = new DbIterator[ranges.size()];
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = new SeqScan(tid, big.getId(), "b", ranges.get(i));
+        HeapFile build = SystemTestUtil.createRandomHeapFile(1, 30000, 1000000, null, null);
+        ParallelHashJoin join = new ParallelHashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, build.getId(), "l"), parts);
+        expected = readTuples(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, build.getId(), "l"), new SeqScan(tid, big.getId(), "b")));
+        SystemTestUtil.matchTuples(join, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelTest.class);
+    }
+}
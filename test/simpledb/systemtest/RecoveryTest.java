@@ -0,0 +1,180 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests LogFile.rollback() and LogFile.recover() with the buffer pool
+ * running STEAL / NO-FORCE.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+    private DbFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, new ArrayList<ArrayList<Integer>>());
+    }
+
+    private Transaction insert(int value) throws Exception {
+        return insert(hf, value);
+    }
+
+    private static Transaction insert(DbFile f, int value) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(),
+                Utility.getHeapTuple(new int[] { value, value }));
+        return t;
+    }
+
+    // count the tuples whose first field is value
+    private int count(int value) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            if (((IntField) scan.next().getField(0)).getValue() == value)
+                n++;
+        }
+        scan.close();
+        t.commit();
+        return n;
+    }
+
+    // lose the buffer pool, reopen the table and recover from the log
+    private void crashAndRecover() throws IOException {
+        Database.reset();
+        if (hf instanceof BTreeFile) {
+            BTreeFile bf = (BTreeFile) hf;
+            hf = BTreeUtility.openBTreeFile(2, bf.getFile(), bf.keyField());
+        } else {
+            hf = new HeapFile(((HeapFile) hf).getFile(), hf.getTupleDesc());
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        }
+        Database.getLogFile().recover();
+    }
+
+    @Test public void committedPagesAreNotForced() throws Exception {
+        insert(-1).commit();
+        assertEquals(1, count(-1));
+        crashAndRecover();
+        assertEquals(1, count(-1));
+    }
+
+    @Test public void stolenPagesAreUndone() throws Exception {
+        insert(-1);
+        Database.getBufferPool().flushAllPages();
+        crashAndRecover();
+        assertEquals(0, count(-1));
+    }
+
+    @Test public void abortRollsBackStolenPages() throws Exception {
+        Transaction t = insert(-1);
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(0, count(-1));
+    }
+
+    @Test public void recoverFromCheckpoint() throws Exception {
+        insert(-1).commit();
+        Database.getLogFile().logCheckpoint();
+        // the loser is active across the second checkpoint, with its page stolen
+        insert(-2);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+        crashAndRecover();
+        assertEquals(1, count(-1));
+        assertEquals(0, count(-2));
+
+        // recovery logged an abort for the loser, so a second recovery does
+        // not undo it again over newer committed work
+        insert(-3).commit();
+        crashAndRecover();
+        assertEquals(1, count(-1));
+        assertEquals(0, count(-2));
+        assertEquals(1, count(-3));
+    }
+
+    @Test public void checkpointsDoNotFlush() throws Exception {
+        // each checkpoint truncates the log, but keeps the first record of
+        // the page the commits left dirty
+        for (int i = 1; i <= 3; i++) {
+            insert(-i).commit();
+            Database.getLogFile().logCheckpoint();
+        }
+        assertEquals(1, Database.getBufferPool().getDirtyPageTable().size());
+        crashAndRecover();
+        for (int i = 1; i <= 3; i++)
+            assertEquals(1, count(-i));
+    }
+
+    @Test public void pageCleaner() throws Exception {
+        insert(-1).commit();
+        BufferPool bp = Database.getBufferPool();
+        bp.startPageCleaner(1, 10);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!bp.getDirtyPageTable().isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        bp.stopPageCleaner();
+        assertTrue(bp.getDirtyPageTable().isEmpty());
+        assertEquals(1, bp.getPagesCleaned());
+
+        // nothing before the checkpoint is needed any more
+        Database.getLogFile().logCheckpoint();
+        crashAndRecover();
+        assertEquals(1, count(-1));
+    }
+
+    @Test public void backgroundWriter() throws Exception {
+        insert(-1).commit();
+        insert(-2);
+        BufferPool bp = Database.getBufferPool();
+        // every page of the pool is next in line, so both are written
+        bp.startBackgroundWriter(1, BufferPool.DEFAULT_PAGES);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!bp.getDirtyPageTable().isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        bp.stopBackgroundWriter();
+        assertTrue(bp.getDirtyPageTable().isEmpty());
+        assertTrue(bp.getPagesWrittenAhead() > 0);
+
+        // the loser's stolen page is undone from the log
+        crashAndRecover();
+        assertEquals(1, count(-1));
+        assertEquals(0, count(-2));
+    }
+
+    @Test public void fullPageImages() throws Exception {
+        Database.getLogFile().setDeltaLogging(false);
+        insert(-1).commit();
+        insert(-2);
+        Database.getBufferPool().flushAllPages();
+        crashAndRecover();
+        assertEquals(1, count(-1));
+        assertEquals(0, count(-2));
+    }
+
+    @Test public void btreeLeafDeltas() throws Exception {
+        hf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        insert(-1).commit();
+        insert(-2);
+        Database.getBufferPool().flushAllPages();
+        crashAndRecover();
+        assertEquals(1, count(-1));
+        assertEquals(0, count(-2));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}